@@ -251,7 +251,7 @@ public class SegPombeMainDialog implements PlugInFilter {
       manualZFocusCkb = new Checkbox(
             "Z focus slice number (default is the middle one)");
       manualZFocusTf = new JFormattedTextField(int.class);
-      manualZFocusTf.setValue(defaultParameters.getFocusSlide());
+      manualZFocusTf.setValue(Math.round(defaultParameters.getFocusSlide()));
 
       manualZFocusPanel.add(manualZFocusCkb);
       manualZFocusPanel.add(manualZFocusTf);
@@ -9,12 +9,12 @@ import ij.plugin.filter.PlugInFilter;
 import ij.plugin.frame.RoiManager;
 import ij.process.ImageProcessor;
 import maars.io.IOUtils;
-import maars.segmentPombe.ComputeCorrelation;
 
 import java.awt.*;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
 
 /**
  * ImajeJ plugin used to optimise sigma parameter used in segmentation process
@@ -80,7 +80,7 @@ public class SigmaOptimization implements PlugInFilter {
 
    /**
     * Runs the plugin : compute mean correlation value for each sigma in the
-    * range tested
+    * range tested, over all the pixels of the ROIs
     */
    @Override
    public void run(ImageProcessor imageProcessor) {
@@ -110,57 +110,48 @@ public class SigmaOptimization implements PlugInFilter {
       Roi[] rois = manager.getRoisAsArray();
       System.out.println("nb of roi :" + rois.length);
 
-      FileWriter fw = null;
-      try {
-         fw = new FileWriter(pathToSaveResult + "opti_sigma.csv");
-      } catch (IOException e) {
-         System.out.println("could not create writer");
-         IOUtils.printErrorToIJLog(e);
+      ArrayList<Float> sigmaList = new ArrayList<>();
+      for (float sigma = (float) lowerSigma; sigma <= upperSigma; sigma = sigma
+            + (float) step) {
+         sigmaList.add(sigma);
       }
-      assert fw != null;
-      BufferedWriter bw = new BufferedWriter(fw);
+      float[] sigmas = new float[sigmaList.size()];
+      for (int s = 0; s < sigmas.length; s++) {
+         sigmas[s] = sigmaList.get(s) / (float) image.getCalibration().pixelDepth;
+      }
+      SigmaSweep sweep = new SigmaSweep(image, sigmas, zf, direction);
+      double[][][] statistics = sweep.run(rois);
 
-      try {
+      try (BufferedWriter bw = new BufferedWriter(new FileWriter(pathToSaveResult + "opti_sigma.csv"));
+           BufferedWriter roiBw = new BufferedWriter(new FileWriter(pathToSaveResult + "opti_sigma_rois.csv"))) {
          bw.write("sigma,mean_correlation");
          bw.newLine();
-      } catch (IOException e) {
-         System.out.println("could not write in file");
-         IOUtils.printErrorToIJLog(e);
-      }
-      float[] iz =new float[image.getNSlices()];
-      for (float sigma = (float) lowerSigma; sigma <= upperSigma; sigma = sigma
-            + (float) step) {
-         System.out.println("for sigma = " + sigma);
-
-         ComputeCorrelation computeCorrelation = new ComputeCorrelation(zf, sigma
-               / (float) image.getCalibration().pixelDepth,
-               direction);
-         computeCorrelation.preCalculateParameters(0, image.getNSlices() - 1);
-         double total = 0;
-         for (Roi roi1 : rois) {
-            double x = roi1.getXBase();
-            double y = roi1.getYBase();
-            for (int z = 0; z < image.getNSlices(); z++) {
-               image.setZ(z);
-               iz[z] = image.getPixel((int) x, (int) y)[0];
+         roiBw.write("sigma,roi,mean,sd,min,median,max,pixels");
+         roiBw.newLine();
+         for (int s = 0; s < sigmas.length; s++) {
+            float sigma = sigmaList.get(s);
+            // mean of the ROIs weighted by their number of pixels, the ROIs without pixel are skipped
+            double total = 0;
+            double nPixels = 0;
+            for (int r = 0; r < rois.length; r++) {
+               double[] roiStatistics = statistics[s][r];
+               if (roiStatistics[SigmaSweep.PIXELS] > 0) {
+                  total = total + roiStatistics[SigmaSweep.MEAN] * roiStatistics[SigmaSweep.PIXELS];
+                  nPixels = nPixels + roiStatistics[SigmaSweep.PIXELS];
+               }
+               roiBw.write(sigma + "," + rois[r].getName() + "," + roiStatistics[SigmaSweep.MEAN] + ","
+                     + roiStatistics[SigmaSweep.SD] + "," + roiStatistics[SigmaSweep.MIN] + ","
+                     + roiStatistics[SigmaSweep.MEDIAN] + "," + roiStatistics[SigmaSweep.MAX] + ","
+                     + (int) roiStatistics[SigmaSweep.PIXELS]);
+               roiBw.newLine();
             }
-            total = total + computeCorrelation.integrate(iz);
-         }
-         double mean = total / rois.length;
-         System.out.println("mean = " + mean);
-         try {
+            double mean = total / nPixels;
+            System.out.println("for sigma = " + sigma + ", mean = " + mean);
             bw.write(sigma + "," + mean);
             bw.newLine();
-         } catch (IOException e) {
-            System.out.println("could not write in file");
-            IOUtils.printErrorToIJLog(e);
          }
-
-      }
-      try {
-         bw.close();
       } catch (IOException e) {
-         System.out.println("could not close writer");
+         System.out.println("could not write in file");
          IOUtils.printErrorToIJLog(e);
       }
       return true;
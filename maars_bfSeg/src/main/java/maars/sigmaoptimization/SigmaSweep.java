@@ -0,0 +1,163 @@
+package maars.sigmaoptimization;
+
+import ij.ImagePlus;
+import ij.gui.Roi;
+import ij.process.ImageProcessor;
+import maars.io.IOUtils;
+import maars.segmentPombe.ComputeCorrelation;
+import maars.utils.PipelineExecutor;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Correlation of every pixel of a set of ROIs for a range of sigma at once. The z profile of
+ * each pixel is read once into a matrix (pixels x slices), the weights of all sigmas form a
+ * second matrix (sigmas x slices) : the correlations are their product. ROIs are computed in
+ * parallel.
+ *
+ * @author marie
+ */
+class SigmaSweep {
+   static final int MEAN = 0;
+   static final int SD = 1;
+   static final int MIN = 2;
+   static final int MEDIAN = 3;
+   static final int MAX = 4;
+   static final int PIXELS = 5;
+   private Object[] slices_;
+   private int width_;
+   private int height_;
+   private double[][] weights_;
+
+   /**
+    * @param image     16-bit stack
+    * @param sigmas    sigma values to test, in slices
+    * @param zf        focus slice
+    * @param direction -1 or 1
+    */
+   SigmaSweep(ImagePlus image, float[] sigmas, int zf, int direction) {
+      int nSlices = image.getStackSize();
+      width_ = image.getWidth();
+      height_ = image.getHeight();
+      slices_ = new Object[nSlices];
+      for (int z = 0; z < nSlices; z++) {
+         slices_[z] = image.getStack().getPixels(z + 1);
+      }
+      weights_ = new double[sigmas.length][];
+      for (int s = 0; s < sigmas.length; s++) {
+         ComputeCorrelation computeCorrelation = new ComputeCorrelation(zf, sigmas[s], direction);
+         computeCorrelation.preCalculateParameters(0, nSlices - 1);
+         weights_[s] = computeCorrelation.getSliceWeights(nSlices);
+      }
+   }
+
+   /**
+    * @param rois cells to analyse
+    * @return for each sigma and each ROI : MEAN, SD, MIN, MEDIAN and MAX of the correlation
+    * of its pixels and their number (PIXELS). A ROI which fails or has no pixel in the image has
+    * NaN statistics and 0 pixels.
+    */
+   double[][][] run(Roi[] rois) {
+      double[][][] statistics = new double[weights_.length][rois.length][];
+      ArrayList<CompletableFuture<double[][]>> tasks = new ArrayList<>();
+      for (Roi roi : rois) {
+         tasks.add(PipelineExecutor.supply(() -> analyseRoi(roi)));
+      }
+      for (int r = 0; r < rois.length; r++) {
+         double[][] roiStatistics;
+         try {
+            roiStatistics = tasks.get(r).join();
+         } catch (CompletionException e) {
+            IOUtils.printErrorToIJLog(e);
+            roiStatistics = new double[weights_.length][];
+            for (int s = 0; s < weights_.length; s++) {
+               roiStatistics[s] = describe(new double[0]);
+            }
+         }
+         for (int s = 0; s < weights_.length; s++) {
+            statistics[s][r] = roiStatistics[s];
+         }
+      }
+      return statistics;
+   }
+
+   private double[][] analyseRoi(Roi roi) {
+      int nSlices = slices_.length;
+      float[] profiles = readProfiles(roi);
+      int nPixels = profiles.length / nSlices;
+      double[][] statistics = new double[weights_.length][];
+      double[] correlations = new double[nPixels];
+      for (int s = 0; s < weights_.length; s++) {
+         double[] weights = weights_[s];
+         for (int p = 0; p < nPixels; p++) {
+            double sum = 0;
+            int offset = p * nSlices;
+            for (int z = 0; z < nSlices; z++) {
+               sum += weights[z] * profiles[offset + z];
+            }
+            correlations[p] = sum;
+         }
+         statistics[s] = describe(correlations);
+      }
+      return statistics;
+   }
+
+   /**
+    * @return z profiles of the pixels of the roi inside the image, one after the other
+    */
+   private float[] readProfiles(Roi roi) {
+      Rectangle bounds = roi.getBounds();
+      Rectangle inside = bounds.intersection(new Rectangle(width_, height_));
+      ImageProcessor mask = roi.getMask();
+      int nSlices = slices_.length;
+      int[] indexes = new int[Math.max(inside.width, 0) * Math.max(inside.height, 0)];
+      int nPixels = 0;
+      for (int y = inside.y; y < inside.y + inside.height; y++) {
+         for (int x = inside.x; x < inside.x + inside.width; x++) {
+            if (mask == null || mask.get(x - bounds.x, y - bounds.y) != 0) {
+               indexes[nPixels++] = y * width_ + x;
+            }
+         }
+      }
+      float[] profiles = new float[nPixels * nSlices];
+      for (int z = 0; z < nSlices; z++) {
+         short[] pixels = (short[]) slices_[z];
+         for (int p = 0; p < nPixels; p++) {
+            profiles[p * nSlices + z] = pixels[indexes[p]] & 0xffff;
+         }
+      }
+      return profiles;
+   }
+
+   private static double[] describe(double[] values) {
+      double[] statistics = new double[6];
+      if (values.length == 0) {
+         Arrays.fill(statistics, Double.NaN);
+         statistics[PIXELS] = 0;
+         return statistics;
+      }
+      double[] sorted = values.clone();
+      Arrays.sort(sorted);
+      double sum = 0;
+      for (double v : sorted) {
+         sum += v;
+      }
+      double mean = sum / sorted.length;
+      double squares = 0;
+      for (double v : sorted) {
+         squares += (v - mean) * (v - mean);
+      }
+      int middle = sorted.length / 2;
+      statistics[MEAN] = mean;
+      statistics[SD] = Math.sqrt(squares / sorted.length);
+      statistics[MIN] = sorted[0];
+      statistics[MEDIAN] = sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+      statistics[MAX] = sorted[sorted.length - 1];
+      statistics[PIXELS] = sorted.length;
+      return statistics;
+   }
+}
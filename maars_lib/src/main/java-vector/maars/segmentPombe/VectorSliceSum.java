@@ -0,0 +1,100 @@
+package maars.segmentPombe;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD version of {@link WeightedSliceSum} for 16-bit stacks, written with the incubator
+ * Vector API (JDK 17+, run with --add-modules jdk.incubator.vector). It is compiled by the
+ * "vector" profile and only loaded by reflection, see {@link WeightedSliceSum#newTask}.
+ * <p>
+ * Pixels are widened to float lanes and accumulated in float, so the result stays within
+ * 1e-5 * sum(|weight| * pixel) of the double accumulation of {@link WeightedSliceSum}.
+ *
+ * @author Tong LI, mail: tongli.bioinfo@gmail.com
+ */
+class VectorSliceSum implements Runnable {
+   private static final VectorSpecies<Float> FLOAT = FloatVector.SPECIES_PREFERRED;
+   private static final VectorSpecies<Integer> INT = IntVector.SPECIES_PREFERRED;
+   private static final VectorSpecies<Short> SHORT = VectorSpecies.of(short.class,
+         VectorShape.forBitSize(FLOAT.vectorBitSize() / 2));
+   private short[][] slices_;
+   private float[] weights_;
+   private int stackWidth_;
+   private float[] correlation_;
+   private int x0_;
+   private int y0_;
+   private int width_;
+   private int height_;
+
+   /**
+    * @param slices      short[] pixels of the slices of the stack
+    * @param stackWidth  width of the stack
+    * @param weights     weight of each slice
+    * @param correlation pixels of the correlation image, same size as the stack
+    * @param x0          x of the upper left corner of the rectangle
+    * @param y0          y of the upper left corner of the rectangle
+    * @param width       width of the rectangle
+    * @param height      height of the rectangle
+    */
+   VectorSliceSum(Object[] slices, int stackWidth, double[] weights, float[] correlation,
+                  int x0, int y0, int width, int height) {
+      int n = 0;
+      for (double w : weights) {
+         if (w != 0) {
+            n++;
+         }
+      }
+      slices_ = new short[n][];
+      weights_ = new float[n];
+      n = 0;
+      for (int z = 0; z < weights.length; z++) {
+         if (weights[z] != 0) {
+            slices_[n] = (short[]) slices[z];
+            weights_[n++] = (float) weights[z];
+         }
+      }
+      stackWidth_ = stackWidth;
+      correlation_ = correlation;
+      x0_ = x0;
+      y0_ = y0;
+      width_ = width;
+      height_ = height;
+   }
+
+   @Override
+   public void run() {
+      int lanes = FLOAT.length();
+      int vectorWidth = width_ - width_ % lanes;
+      FloatVector[] weights = new FloatVector[weights_.length];
+      for (int z = 0; z < weights.length; z++) {
+         weights[z] = FloatVector.broadcast(FLOAT, weights_[z]);
+      }
+      for (int y = y0_; y < y0_ + height_; y++) {
+         int offset = y * stackWidth_ + x0_;
+         int x = 0;
+         for (; x < vectorWidth; x += lanes) {
+            FloatVector sum = FloatVector.zero(FLOAT);
+            for (int z = 0; z < slices_.length; z++) {
+               // 16-bit pixels are unsigned, widen through int before converting to float
+               IntVector pixels = (IntVector) ShortVector.fromArray(SHORT, slices_[z], offset + x)
+                     .convertShape(VectorOperators.S2I, INT, 0);
+               FloatVector values = (FloatVector) pixels.and(0xffff).convert(VectorOperators.I2F, 0);
+               sum = values.fma(weights[z], sum);
+            }
+            sum.intoArray(correlation_, offset + x);
+         }
+         for (; x < width_; x++) {
+            float sum = 0;
+            for (int z = 0; z < slices_.length; z++) {
+               sum = Math.fma(weights_[z], slices_[z][offset + x] & 0xffff, sum);
+            }
+            correlation_[offset + x] = sum;
+         }
+      }
+   }
+}
@@ -1,15 +1,11 @@
 package maars.agents;
 
-import fiji.plugin.trackmate.Model;
-import fiji.plugin.trackmate.Spot;
 import ij.gui.Roi;
 import maars.cellAnalysis.GeometryContainer;
-import maars.cellAnalysis.SpotsContainer;
 import maars.utils.ImgUtils;
 
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
 
 /**
  * @author Tong LI
@@ -21,8 +17,7 @@ public class Cell implements Serializable {
          SOLIDITY = 15;
    private int cellNumber;
    private transient Roi cellShapeRoi;
-   private String[] measurements;
-   private transient SpotsContainer spotContainer;
+   private CellMeasurements measurements;
    private GeometryContainer geoContainer;
    private ArrayList<Integer> spotInBetweenFrames = new ArrayList<>();
    private ArrayList<Integer> frameWithUnalignedSpot_ = new ArrayList<>();
@@ -35,7 +30,6 @@ public class Cell implements Serializable {
    public Cell(Roi roiCellShape, int cellNb) {
       this.cellShapeRoi = roiCellShape;
       this.cellNumber = cellNb;
-      this.spotContainer = new SpotsContainer();
       this.geoContainer = new GeometryContainer();
    }
 
@@ -54,44 +48,26 @@ public class Cell implements Serializable {
       return this.cellNumber;
    }
 
-   void setRoiMeasurement(String measurements) {
-      this.measurements = measurements.split("\t", -1);
+   /**
+    * @param measurements measurements of all the cells of the position, shared
+    */
+   void setRoiMeasurement(CellMeasurements measurements) {
+      this.measurements = measurements;
    }
 
+   /**
+    * @param headerIndex index of the measurement (AREA, MEAN...)
+    * @return measurement of the roi
+    */
    public double get(int headerIndex) {
-      return Double.parseDouble(measurements[headerIndex]);
+      return measurements.get(headerIndex, cellNumber);
    }
 
    public void addChannel(String channel) {
-      this.spotContainer.addChannel(channel);
       this.geoContainer.addChannel(channel);
    }
 
-   public void putSpot(String channel, int frame, Spot s) {
-      this.spotContainer.putSpot(channel, frame, s);
-   }
-
-   public int getNbOfSpots(String channel, int frame) {
-      return this.spotContainer.getNbOfSpot(channel, frame);
-   }
-
-   public Iterable<Spot> getSpotsInFrame(String channel, int frame) {
-      return this.spotContainer.getSpotsInFrame(channel, frame);
-   }
-
-   public void removeSpot(String channel, int frame, Spot s) {
-      this.spotContainer.removeSpot(channel, frame, s);
-   }
-
-   public void setTrackmateModel(Model model) {
-      this.spotContainer.setTrackmateModel(model);
-   }
-
-   public SpotsContainer getSpotContainer() {
-      return this.spotContainer;
-   }
-
-   public void putGeometry(String channel, int frame, HashMap<String, Object> geometries) {
+   public void putGeometry(String channel, int frame, double[] geometries) {
       this.geoContainer.putGeometry(channel, frame, geometries);
    }
 
@@ -0,0 +1,71 @@
+package maars.agents;
+
+import ij.measure.ResultsTable;
+import maars.io.LabelMapFile;
+
+import java.io.Serializable;
+
+/**
+ * Measurements of the cells of a position, one primitive column per measurement indexed by
+ * cell number. The columns are the ones of Results.csv (see the header indices of Cell), column
+ * 0 being the cell number. The table is built once when the cells are loaded and never
+ * modified, so the threads of the analysis share it without lock.
+ *
+ * @author Tong LI, mail: tongli.bioinfo@gmail.com
+ */
+public class CellMeasurements implements Serializable {
+   private final double[][] columns_;
+
+   private CellMeasurements(int nbCells) {
+      columns_ = new double[Cell.SOLIDITY + 1][nbCells + 1];
+      for (int cellNb = 1; cellNb <= nbCells; cellNb++) {
+         columns_[0][cellNb] = cellNb;
+      }
+   }
+
+   /**
+    * @param rt      results of the particle analyzer or Results.csv, one row per cell
+    * @param nbCells number of cells
+    * @return measurements of the rows, parsed once
+    */
+   static CellMeasurements fromResultsTable(ResultsTable rt, int nbCells) {
+      CellMeasurements measurements = new CellMeasurements(nbCells);
+      for (int cellNb = 1; cellNb <= nbCells; cellNb++) {
+         String[] row = rt.getRowAsString(cellNb - 1).split("\t", -1);
+         for (int column = 1; column < measurements.columns_.length && column < row.length; column++) {
+            measurements.columns_[column][cellNb] = Double.parseDouble(row[column]);
+         }
+      }
+      return measurements;
+   }
+
+   /**
+    * @param labelMap label map of the segmentation
+    * @return measurements of the label map
+    */
+   static CellMeasurements fromLabelMap(LabelMapFile labelMap) {
+      CellMeasurements measurements = new CellMeasurements(labelMap.getNbCells());
+      for (int column = 1; column < measurements.columns_.length && column <= labelMap.getNbColumns(); column++) {
+         for (int cellNb = 1; cellNb <= labelMap.getNbCells(); cellNb++) {
+            measurements.columns_[column][cellNb] = labelMap.get(column - 1, cellNb);
+         }
+      }
+      return measurements;
+   }
+
+   /**
+    * @return number of cells
+    */
+   public int size() {
+      return columns_[0].length - 1;
+   }
+
+   /**
+    * @param headerIndex index of the column (see Cell)
+    * @param cellNb      cell number
+    * @return measurement of the cell
+    */
+   public double get(int headerIndex, int cellNb) {
+      return columns_[headerIndex][cellNb];
+   }
+}
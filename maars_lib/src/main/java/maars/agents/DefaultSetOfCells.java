@@ -3,7 +3,11 @@ package maars.agents;
 import ij.gui.Roi;
 import ij.measure.ResultsTable;
 import ij.plugin.frame.RoiManager;
+import maars.cellAnalysis.CellLabelMap;
+import maars.cellAnalysis.SpotsContainer;
+import maars.io.LabelMapFile;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -21,6 +25,9 @@ public class DefaultSetOfCells implements Iterable<Cell>, Iterator<Cell>, Serial
    private ArrayList<Cell> cellArray;
    private CopyOnWriteArrayList<Integer> cellsWithAtLeast1Spot_ = new CopyOnWriteArrayList<>();
    private String position_;
+   private transient CellLabelMap cellLabelMap_;
+   private transient SpotsContainer spotsContainer_;
+   private CellMeasurements measurements_;
 
    public DefaultSetOfCells(String positionNb) {
       position_ = positionNb;
@@ -30,6 +37,8 @@ public class DefaultSetOfCells implements Iterable<Cell>, Iterator<Cell>, Serial
     * @param pathToZip path to segmentation directory
     */
    public void loadCells(String pathToZip) {
+      cellLabelMap_ = null;
+      measurements_ = null;
       Roi[] roiArray = getRoisAsArray(pathToZip);
       cellArray = new ArrayList<>();
       for (int i = 1; i <= roiArray.length; i++) {
@@ -37,6 +46,25 @@ public class DefaultSetOfCells implements Iterable<Cell>, Iterator<Cell>, Serial
       }
    }
 
+   /**
+    * Load the cells and their measurements from the label map of the segmentation, without the
+    * RoiManager and without Results.csv
+    *
+    * @param pathToLabelMap path to the label map (see LabelMapFile)
+    * @throws IOException if the label map can not be mapped
+    */
+   public void loadCellsFromLabelMap(String pathToLabelMap) throws IOException {
+      LabelMapFile labelMap = LabelMapFile.open(pathToLabelMap);
+      cellLabelMap_ = null;
+      measurements_ = CellMeasurements.fromLabelMap(labelMap);
+      cellArray = new ArrayList<>(labelMap.getNbCells());
+      for (int i = 1; i <= labelMap.getNbCells(); i++) {
+         Cell cell = new Cell(labelMap.getRoi(i), i);
+         cell.setRoiMeasurement(measurements_);
+         cellArray.add(cell);
+      }
+   }
+
    /**
     * Method to open ROI file and get them as ROI array
     *
@@ -56,6 +84,32 @@ public class DefaultSetOfCells implements Iterable<Cell>, Iterator<Cell>, Serial
       return rois;
    }
 
+   /**
+    * Cell number of the pixels of a fluo image, built at the first call for a calibration and
+    * shared by the channels and frames
+    *
+    * @param factors factors of rescale from the bright field to the fluo image
+    * @param width   width of the fluo image
+    * @param height  height of the fluo image
+    * @return the label map of the cells in the fluo image
+    */
+   public synchronized CellLabelMap getCellLabelMap(double[] factors, int width, int height) {
+      if (cellLabelMap_ == null || !cellLabelMap_.isFor(factors, width, height)) {
+         cellLabelMap_ = new CellLabelMap(this, factors, width, height);
+      }
+      return cellLabelMap_;
+   }
+
+   /**
+    * @return spots of the cells of the position, in all channels and frames
+    */
+   public synchronized SpotsContainer getSpotsContainer() {
+      if (spotsContainer_ == null) {
+         spotsContainer_ = new SpotsContainer();
+      }
+      return spotsContainer_;
+   }
+
    /**
     * Method to get Cell corresponding to index
     *
@@ -79,11 +133,19 @@ public class DefaultSetOfCells implements Iterable<Cell>, Iterator<Cell>, Serial
     * @param rt rt from particle analyzer
     */
    public void addRoiMeasurementIntoCells(ResultsTable rt) {
+      measurements_ = CellMeasurements.fromResultsTable(rt, cellArray.size());
       for (Cell c : cellArray) {
-         c.setRoiMeasurement(rt.getRowAsString(c.getCellNumber() - 1));
+         c.setRoiMeasurement(measurements_);
       }
    }
 
+   /**
+    * @return measurements of the cells, null if they were not loaded
+    */
+   public CellMeasurements getMeasurements() {
+      return measurements_;
+   }
+
    @Override
    public String getPosLabel() {
       return position_;
@@ -93,6 +155,9 @@ public class DefaultSetOfCells implements Iterable<Cell>, Iterator<Cell>, Serial
       iteratorCount = 0;
       cellArray = null;
       cellArray = new ArrayList<>();
+      cellLabelMap_ = null;
+      spotsContainer_ = null;
+      measurements_ = null;
       cellsWithAtLeast1Spot_ = null;
       cellsWithAtLeast1Spot_ = new CopyOnWriteArrayList<>();
    }
@@ -2,6 +2,8 @@ package maars.agents;
 
 import ij.measure.ResultsTable;
 
+import java.io.IOException;
+
 /**
  * Created by tong on 26/06/17.
  */
@@ -12,6 +14,8 @@ public interface SetOfCells {
 
    public void loadCells(String pathToROIZip);
 
+   public void loadCellsFromLabelMap(String pathToLabelMap) throws IOException;
+
    public void reset();
 
    public void addRoiMeasurementIntoCells(ResultsTable rt);
@@ -0,0 +1,85 @@
+package maars.cellAnalysis;
+
+import java.util.Arrays;
+
+/**
+ * The k best quality spots among the ones offered : a min heap on primitive qualities, the
+ * worst kept spot at the root is replaced by any better one. The spots are only known by their
+ * index, so they can be TrackMate spots in a list or rows of a SpotTable.
+ *
+ * @author Tong LI, mail: tongli.bioinfo@gmail.com
+ */
+class BestQualitySpots {
+   private int capacity_;
+   private double[] qualities_;
+   private int[] indices_;
+   private int size_;
+
+   /**
+    * @param capacity maximum number of spots kept
+    */
+   BestQualitySpots(int capacity) {
+      capacity_ = Math.max(capacity, 0);
+      int initial = Math.min(capacity_, 16);
+      qualities_ = new double[initial];
+      indices_ = new int[initial];
+   }
+
+   /**
+    * @param index   index of the spot to offer, kept if it is among the k best so far
+    * @param quality quality of the spot
+    */
+   void offer(int index, double quality) {
+      if (size_ < capacity_) {
+         if (size_ == qualities_.length) {
+            int length = Math.min(2 * size_, capacity_);
+            qualities_ = Arrays.copyOf(qualities_, length);
+            indices_ = Arrays.copyOf(indices_, length);
+         }
+         int i = size_++;
+         while (i > 0 && qualities_[(i - 1) / 2] > quality) {
+            qualities_[i] = qualities_[(i - 1) / 2];
+            indices_[i] = indices_[(i - 1) / 2];
+            i = (i - 1) / 2;
+         }
+         qualities_[i] = quality;
+         indices_[i] = index;
+      } else if (size_ > 0 && quality > qualities_[0]) {
+         siftDown(index, quality);
+      }
+   }
+
+   /**
+    * replace the root and restore the heap
+    */
+   private void siftDown(int index, double quality) {
+      int i = 0;
+      while (2 * i + 1 < size_) {
+         int child = 2 * i + 1;
+         if (child + 1 < size_ && qualities_[child + 1] < qualities_[child]) {
+            child++;
+         }
+         if (qualities_[child] >= quality) {
+            break;
+         }
+         qualities_[i] = qualities_[child];
+         indices_[i] = indices_[child];
+         i = child;
+      }
+      qualities_[i] = quality;
+      indices_[i] = index;
+   }
+
+   int size() {
+      return size_;
+   }
+
+   /**
+    * @return indices of the spots kept, in the order they were offered
+    */
+   int[] toIndices() {
+      int[] indices = Arrays.copyOf(indices_, size_);
+      Arrays.sort(indices);
+      return indices;
+   }
+}
@@ -0,0 +1,118 @@
+package maars.cellAnalysis;
+
+import ij.gui.Roi;
+import maars.agents.Cell;
+import maars.agents.SetOfCells;
+
+import java.awt.Rectangle;
+
+/**
+ * Cell number of every pixel of the fluo image, to find the cell of a spot in constant time
+ * instead of testing it against every roi. It is built once per position and calibration : the
+ * rois are rescaled around their center like ImgUtils.rescaleRoi, each pixel of the rescaled
+ * bounding box being tested against the original roi. Where the rois overlap, the pixel
+ * belongs to the cell with the smallest number.
+ *
+ * @author Tong LI, mail: tongli.bioinfo@gmail.com
+ */
+public class CellLabelMap {
+   private int width_;
+   private int height_;
+   private double[] factors_;
+   private int[] cells_;
+   private double[] xBases_;
+   private double[] yBases_;
+   private Rectangle[] bounds_;
+
+   /**
+    * @param soc     set of cells, segmented on the bright field image
+    * @param factors factors of rescale from the bright field to the fluo image (see ImgUtils.getRescaleFactor)
+    * @param width   width of the fluo image
+    * @param height  height of the fluo image
+    */
+   public CellLabelMap(SetOfCells soc, double[] factors, int width, int height) {
+      width_ = width;
+      height_ = height;
+      factors_ = factors.clone();
+      cells_ = new int[width * height];
+      xBases_ = new double[soc.size() + 1];
+      yBases_ = new double[soc.size() + 1];
+      bounds_ = new Rectangle[soc.size() + 1];
+      for (int cellNb = 1; cellNb <= soc.size(); cellNb++) {
+         rasterize(soc.getCell(cellNb), factors[0], factors[1]);
+      }
+   }
+
+   private void rasterize(Cell cell, double fx, double fy) {
+      Roi roi = cell.getCellShapeRoi();
+      Rectangle bounds = roi.getBounds();
+      double cx = bounds.x + bounds.width / 2.0;
+      double cy = bounds.y + bounds.height / 2.0;
+      xBases_[cell.getCellNumber()] = cx + (bounds.x - cx) * fx;
+      yBases_[cell.getCellNumber()] = cy + (bounds.y - cy) * fy;
+      int x0 = Math.max((int) Math.floor(xBases_[cell.getCellNumber()]), 0);
+      int y0 = Math.max((int) Math.floor(yBases_[cell.getCellNumber()]), 0);
+      int x1 = Math.min((int) Math.ceil(cx + (bounds.x + bounds.width - cx) * fx), width_);
+      int y1 = Math.min((int) Math.ceil(cy + (bounds.y + bounds.height - cy) * fy), height_);
+      bounds_[cell.getCellNumber()] = new Rectangle(x0, y0, Math.max(x1 - x0, 0), Math.max(y1 - y0, 0));
+      for (int y = y0; y < y1; y++) {
+         int sy = (int) Math.floor(cy + (y + 0.5 - cy) / fy);
+         for (int x = x0; x < x1; x++) {
+            int i = y * width_ + x;
+            if (cells_[i] == 0 && roi.contains((int) Math.floor(cx + (x + 0.5 - cx) / fx), sy)) {
+               cells_[i] = cell.getCellNumber();
+            }
+         }
+      }
+   }
+
+   /**
+    * @return true if the map was built for these factors and this fluo image size
+    */
+   public boolean isFor(double[] factors, int width, int height) {
+      return width == width_ && height == height_ && factors[0] == factors_[0] && factors[1] == factors_[1];
+   }
+
+   /**
+    * @param x x in pixels of the fluo image
+    * @param y y in pixels of the fluo image
+    * @return cell number, 0 for the background and outside of the image
+    */
+   public int getCell(int x, int y) {
+      if (x < 0 || y < 0 || x >= width_ || y >= height_) {
+         return 0;
+      }
+      return cells_[y * width_ + x];
+   }
+
+   /**
+    * @param cellNb cell number
+    * @return bounding box of the rescaled roi of the cell, in pixels of the fluo image
+    */
+   public Rectangle getBounds(int cellNb) {
+      return new Rectangle(bounds_[cellNb]);
+   }
+
+   /**
+    * @return number of cells
+    */
+   public int getNbCells() {
+      return bounds_.length - 1;
+   }
+
+   /**
+    * @param cellNb cell number
+    * @return x of the rescaled roi of the cell, in pixels of the fluo image
+    */
+   public double getXBase(int cellNb) {
+      return xBases_[cellNb];
+   }
+
+   /**
+    * @param cellNb cell number
+    * @return y of the rescaled roi of the cell, in pixels of the fluo image
+    */
+   public double getYBase(int cellNb) {
+      return yBases_[cellNb];
+   }
+}
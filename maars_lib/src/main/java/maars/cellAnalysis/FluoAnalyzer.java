@@ -3,21 +3,18 @@ package maars.cellAnalysis;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
+import fiji.plugin.trackmate.features.spot.SpotIntensityAnalyzerFactory;
 import ij.ImagePlus;
-import ij.gui.Roi;
 import ij.measure.Calibration;
 import maars.agents.Cell;
 import maars.agents.DefaultSetOfCells;
 import maars.cellAnalysis.singleCellAnalysisFactory.FindLagging;
 import maars.display.SOCVisualizer;
-import maars.io.IOUtils;
-import maars.utils.CollectionUtils;
 import maars.utils.ImgUtils;
+import maars.utils.PipelineExecutor;
 
+import java.awt.Rectangle;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.concurrent.*;
 
 /**
  * @author Tong LI, mail:tongli.bioinfo@gmail.com
@@ -34,10 +31,14 @@ public class FluoAnalyzer implements Runnable {
    private double radius;
    private double quality;
    private int frame;
-   private SpotCollection collection;
+   private ArrayList<Spot> bestSpots;
    private Model model;
+   private CellLabelMap cellLabelMap;
+   private ArrayList<ArrayList<Spot>> spotsOfCells;
+   private SpotTable spotsOfFrame;
    private SOCVisualizer socVisualizer_;
    private Boolean useDynamic_;
+   private boolean useTrackmate_;
 
    /**
     * @param fluoImage     image zProjected or not
@@ -51,9 +52,11 @@ public class FluoAnalyzer implements Runnable {
     * @param quality       user predefined quality threshold for spot selection
     * @param socVisualizer a JFreeChart based display to show cell params
     * @param useDynamic    perform dynamic analysis
+    * @param useTrackmate  detect the spots with TrackMate on the whole image instead of LogSpotDetector
     */
    public FluoAnalyzer(ImagePlus fluoImage, Calibration segImgCal, DefaultSetOfCells soc, String channel, int maxNbSpot,
-                       double radius, double quality, int frame, SOCVisualizer socVisualizer, Boolean useDynamic) {
+                       double radius, double quality, int frame, SOCVisualizer socVisualizer, Boolean useDynamic,
+                       boolean useTrackmate) {
       this.fluoImage = fluoImage;
       this.fluoImgCal = fluoImage.getCalibration();
       this.soc = soc;
@@ -65,132 +68,123 @@ public class FluoAnalyzer implements Runnable {
       this.frame = frame;
       socVisualizer_ = socVisualizer;
       useDynamic_ = useDynamic;
+      useTrackmate_ = useTrackmate;
    }
 
    /**
-    * the main, use one new thread just in order to free acquisition thread to
-    * acquire images as soon as possible
+    * the main, run in the pool of the pipeline (see PipelineExecutor) in order to free
+    * acquisition thread to acquire images as soon as possible
     */
    @Override
    public void run() {
       if (fluoImage.getCalibration().getUnit().equals("cm")) {
          fluoImage = ImgUtils.unitCmToMicron(fluoImage);
       }
-      ImagePlus zProjectedFluoImg = fluoImage;
-      MaarsTrackmate trackmate = new MaarsTrackmate(zProjectedFluoImg, radius, quality);
-      this.model = trackmate.doDetection();
       int nbCell = soc.size();
-      collection = SpotsContainer.getNBestqualitySpots(model.getSpots(), nbCell, maxNbSpot);
       double[] factors = ImgUtils.getRescaleFactor(segImgCal, fluoImgCal);
-
-      int nThread = Runtime.getRuntime().availableProcessors();
-      final int[] nbOfCellEachThread = new int[2];
-      nbOfCellEachThread[0] = nbCell / nThread;
-      nbOfCellEachThread[1] = nbOfCellEachThread[0] + nbCell % nThread;
-      ExecutorService es_ = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-      List<Future> jobs = new ArrayList<>();
-      for (int i = 0; i < nThread; i++) {
-         // analyze every subset of cell
-         jobs.add(es_.submit(new AnalyseBlockCells(i, nbOfCellEachThread, factors)));
-      }
-      for (Future f : jobs) {
-         try {
-            f.get();
-         } catch (InterruptedException | ExecutionException e) {
-            IOUtils.printErrorToIJLog(e);
+      cellLabelMap = soc.getCellLabelMap(factors, fluoImage.getWidth(), fluoImage.getHeight());
+      if (useTrackmate_) {
+         MaarsTrackmate trackmate = new MaarsTrackmate(fluoImage, radius, quality);
+         this.model = trackmate.doDetection();
+         // need to be false because all spots are not visible
+         bestSpots = SpotsContainer.getNBestqualitySpots(model.getSpots().iterable(false), nbCell, maxNbSpot);
+      } else {
+         // only the pixels of the cells are scanned
+         Rectangle[] boxes = new Rectangle[nbCell];
+         for (int i = 0; i < nbCell; i++) {
+            boxes[i] = cellLabelMap.getBounds(i + 1);
          }
+         this.model = new Model();
+         model.setPhysicalUnits(fluoImgCal.getUnit(), fluoImgCal.getTimeUnit());
+         bestSpots = new LogSpotDetector(fluoImage, radius, quality).detect(boxes).toBestSpots(nbCell * maxNbSpot);
       }
-      es_.shutdown();
-      try {
-         es_.awaitTermination(5, TimeUnit.MINUTES);
-      } catch (InterruptedException e) {
-         e.printStackTrace();
+      spotsOfCells = assignSpotsToCells();
+      // features of the spots kept only
+      ArrayList<Spot> keptSpots = new ArrayList<>();
+      spotsOfCells.forEach(keptSpots::addAll);
+      MaarsTrackmate.computeSpotFeatures(fluoImage, model, keptSpots);
+      // the spots are stored in columns, sorted by cell, only the header of the model is kept
+      spotsOfFrame = new SpotTable(keptSpots.size(), SpotIntensityAnalyzerFactory.FEATURES);
+      for (int cellNb = 1; cellNb <= nbCell; cellNb++) {
+         for (Spot s : spotsOfCells.get(cellNb)) {
+            spotsOfFrame.add(s, cellNb);
+         }
       }
+      model.setSpots(new SpotCollection(), false);
+      SpotsContainer container = soc.getSpotsContainer();
+      container.setTrackmateModel(model);
+      container.putSpots(channel, frame, spotsOfFrame);
+      bestSpots = null;
+      spotsOfCells = null;
+
+      // one task per cell, in the pool of the pipeline
+      PipelineExecutor.forEach(1, nbCell + 1, this::analyseCell);
       if (useDynamic_ && socVisualizer_ != null) {
          socVisualizer_.updateParameters(soc);
       }
       fluoImage = null;
       model = null;
+      spotsOfFrame = null;
    }
 
-   //private class for analysing cells
-   //--------------------------------------------------------------------------------------//
-
    /**
-    * analyzer of subset
+    * Find the cell of each spot through the label map, then keep the maxNbSpot best quality
+    * spots of each cell
+    *
+    * @return spots of each cell, indexed by cell number
     */
-   private class AnalyseBlockCells implements Runnable {
-      private int index_;
-      private int[] deltas_;
-      private double[] factors_;
-
-      AnalyseBlockCells(int index, final int[] deltas, double[] factors) {
-         index_ = index;
-         deltas_ = deltas;
-         factors_ = factors;
-      }
-
-      @Override
-      public void run() {
-         // distribute number of cells for each thread
-         int begin = 0;
-         int end;
-         if (index_ == 0) {
-            if (deltas_[0] != deltas_[1]) {
-               end = deltas_[1];
-            } else {
-               end = deltas_[0];
+   private ArrayList<ArrayList<Spot>> assignSpotsToCells() {
+      BestQualitySpots[] best = new BestQualitySpots[soc.size() + 1];
+      for (int i = 0; i < bestSpots.size(); i++) {
+         Spot s = bestSpots.get(i);
+         int cellNb = cellLabelMap.getCell((int) Math.round(s.getFeature(Spot.POSITION_X) / fluoImgCal.pixelWidth),
+               (int) Math.round(s.getFeature(Spot.POSITION_Y) / fluoImgCal.pixelHeight));
+         if (cellNb != 0) {
+            if (best[cellNb] == null) {
+               best[cellNb] = new BestQualitySpots(maxNbSpot);
             }
-         } else {
-            begin = index_ * deltas_[0] + (deltas_[1] - deltas_[0]);
-            end = begin + deltas_[0];
+            best[cellNb].offer(i, s.getFeature(Spot.QUALITY));
          }
-         // need to be false because all spots are not visible
-         ArrayList<Spot> currentThreadSpots = CollectionUtils.toArrayList(collection.iterable(false));
-         for (int j = begin + 1; j <= end; j++) {
-            Cell cell = soc.getCell(j);
-            cell.addChannel(channel);
-            cell.setTrackmateModel(model);
-            Roi tmpRoi;
-            if (factors_[0] != 1 || factors_[1] != 1) {
-               tmpRoi = cell.rescaleCellShapeRoi(factors_);
-            } else {
-               tmpRoi = cell.getCellShapeRoi();
-            }
-            double calibratedXBase = tmpRoi.getXBase() * fluoImgCal.pixelWidth;
-            double calibratedYBase = tmpRoi.getYBase() * fluoImgCal.pixelHeight;
-            ArrayList<Spot> spotsToDel = new ArrayList<>();
-            for (Spot s : currentThreadSpots) {
-               if (tmpRoi.contains((int) Math.round(s.getFeature(Spot.POSITION_X) / fluoImgCal.pixelWidth),
-                     (int) Math.round(s.getFeature(Spot.POSITION_Y) / fluoImgCal.pixelHeight))) {
-                  cell.putSpot(channel, frame, s);
-                  spotsToDel.add(s);
-                  if (cell.getNbOfSpots(channel, frame) > maxNbSpot) {
-                     Spot lowesetQulitySpot = SpotsContainer
-                           .findLowestQualitySpot(cell.getSpotsInFrame(channel, frame));
-                     cell.removeSpot(channel, frame, lowesetQulitySpot);
-                  }
-               }
-            }
-            // remove spots found in current cell in order to accelerate
-            // iteration
-            currentThreadSpots.removeAll(spotsToDel);
-            SpotSetAnalyzor spotSetAnalyzor = new SpotSetAnalyzor(cell.get(Cell.X_CENTROID) * fluoImgCal.pixelWidth,
-                  cell.get(Cell.Y_CENTROID) * fluoImgCal.pixelHeight,
-                  cell.get(Cell.MAJOR) * fluoImgCal.pixelWidth, cell.get(Cell.ANGLE), calibratedXBase,
-                  calibratedYBase);
-
-            Iterable<Spot> spotSet = cell.getSpotsInFrame(channel, frame);
-            if (spotSet != null) {
-               HashMap<String, Object> geometry = spotSetAnalyzor.compute(spotSet);
-               ArrayList<Spot> poles = spotSetAnalyzor.getPoles();
-               cell.putGeometry(channel, frame, geometry);
-               new FindLagging(cell, spotSet, fluoImgCal, poles, radius, frame);
-               if ((Integer) geometry.get(SpotSetAnalyzor.NbOfSpotDetected) >= 1) {
-                  soc.addPotentialMitosisCell(cell.getCellNumber());
-               }
+      }
+      ArrayList<ArrayList<Spot>> spotsOfCells = new ArrayList<>(best.length);
+      for (BestQualitySpots b : best) {
+         ArrayList<Spot> spots = new ArrayList<>();
+         if (b != null) {
+            for (int i : b.toIndices()) {
+               spots.add(bestSpots.get(i));
             }
          }
+         spotsOfCells.add(spots);
+      }
+      return spotsOfCells;
+   }
+
+   /**
+    * Compute the geometry of the spots of a cell, a range of rows of the frame
+    *
+    * @param cellNb cell number
+    */
+   private void analyseCell(int cellNb) {
+      Cell cell = soc.getCell(cellNb);
+      cell.addChannel(channel);
+      int from = spotsOfFrame.firstRowOfCell(cellNb);
+      int to = spotsOfFrame.firstRowOfCell(cellNb + 1);
+      if (from == to) {
+         // no spot in this frame, no geometry
+         return;
+      }
+      double calibratedXBase = cellLabelMap.getXBase(cellNb) * fluoImgCal.pixelWidth;
+      double calibratedYBase = cellLabelMap.getYBase(cellNb) * fluoImgCal.pixelHeight;
+      SpotSetAnalyzor spotSetAnalyzor = new SpotSetAnalyzor(cell.get(Cell.X_CENTROID) * fluoImgCal.pixelWidth,
+            cell.get(Cell.Y_CENTROID) * fluoImgCal.pixelHeight,
+            cell.get(Cell.MAJOR) * fluoImgCal.pixelWidth, cell.get(Cell.ANGLE), calibratedXBase,
+            calibratedYBase);
+      double[] geometry = spotSetAnalyzor.compute(spotsOfFrame, from, to);
+      int[] poles = spotSetAnalyzor.getPoles();
+      cell.putGeometry(channel, frame, geometry);
+      new FindLagging(cell, spotsOfFrame, from, to, fluoImgCal, poles, radius, frame);
+      if (geometry[SpotSetAnalyzor.NB_OF_SPOT_DETECTED] >= 1) {
+         soc.addPotentialMitosisCell(cell.getCellNumber());
       }
    }
 }
@@ -1,11 +1,17 @@
 package maars.cellAnalysis;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Set;
 
+/**
+ * Geometry of the spindle of a cell : for each channel, one series per parameter of
+ * SpotSetAnalyzor.AllGeoParamSet, indexed by frame. NaN means no value, a frame not analysed
+ * has NaN for all parameters (even NbOfSpotDetected).
+ */
 public class GeometryContainer implements Serializable {
-   private HashMap<String, HashMap<Integer, HashMap<String, Object>>> geosOfCells;
+   private final HashMap<String, double[][]> geosOfCells = new HashMap<>();
 
    public GeometryContainer() {
    }
@@ -13,41 +19,61 @@ public class GeometryContainer implements Serializable {
    /**
     * @param channel channel name
     */
-   public void addChannel(String channel) {
-      if (this.geosOfCells == null) {
-         this.geosOfCells = new HashMap<>();
-      }
+   public synchronized void addChannel(String channel) {
       if (!this.geosOfCells.containsKey(channel)) {
-         this.geosOfCells.put(channel, new HashMap<>());
+         this.geosOfCells.put(channel, newSeries(SpotSetAnalyzor.AllGeoParamSet.length, 16));
       }
    }
 
-   /**
-    * @param channel channel name
-    * @param frame   frame name
-    */
-   private boolean geoFrameExists(String channel, int frame) {
-      return getGeosInChannel(channel).containsKey(frame);
+   private static double[][] newSeries(int nbParams, int nbFrames) {
+      double[][] series = new double[nbParams][nbFrames];
+      for (double[] s : series) {
+         Arrays.fill(s, Double.NaN);
+      }
+      return series;
    }
 
    /**
     * @param channel    channel name
     * @param frame      frame name
-    * @param geometries geometry of spindle
+    * @param geometries geometry of spindle, in the order of SpotSetAnalyzor.AllGeoParamSet
     */
-   public void putGeometry(String channel, int frame, HashMap<String, Object> geometries) {
-      if (!geoFrameExists(channel, frame)) {
-         getGeosInChannel(channel).put(frame, new HashMap<>());
+   public synchronized void putGeometry(String channel, int frame, double[] geometries) {
+      double[][] series = geosOfCells.get(channel);
+      if (frame >= series[0].length) {
+         double[][] grown = newSeries(series.length, Math.max(2 * series[0].length, frame + 1));
+         for (int p = 0; p < series.length; p++) {
+            System.arraycopy(series[p], 0, grown[p], 0, series[p].length);
+         }
+         series = grown;
+         geosOfCells.put(channel, series);
+      }
+      for (int p = 0; p < series.length; p++) {
+         series[p][frame] = geometries[p];
       }
-      getGeosInChannel(channel).put(frame, geometries);
    }
 
-   public Set<String> getUsingChannels() {
+   public synchronized Set<String> getUsingChannels() {
       return this.geosOfCells.keySet();
    }
 
-   public HashMap<Integer, HashMap<String, Object>> getGeosInChannel(String channel) {
-      return this.geosOfCells.get(channel);
+   /**
+    * @param channel channel name
+    * @param param   index of the parameter in SpotSetAnalyzor.AllGeoParamSet
+    * @return values of the parameter indexed by frame, not a copy : it may be longer than the
+    * frames analysed (NaN after them) and is replaced when a later frame is put
+    */
+   public synchronized double[] getSeries(String channel, int param) {
+      return this.geosOfCells.get(channel)[param];
    }
 
+   /**
+    * @param channel channel name
+    * @param frame   frame name
+    * @return whether or not the frame was analysed
+    */
+   public synchronized boolean hasFrame(String channel, int frame) {
+      double[] nbOfSpots = getSeries(channel, SpotSetAnalyzor.NB_OF_SPOT_DETECTED);
+      return frame < nbOfSpots.length && !Double.isNaN(nbOfSpots[frame]);
+   }
 }
@@ -0,0 +1,267 @@
+package maars.cellAnalysis;
+
+import ij.ImagePlus;
+import ij.process.ImageProcessor;
+import maars.utils.PipelineExecutor;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Laplacian of Gaussian spot detector, in place of the LoG detector of TrackMate and with the
+ * same settings (median filtering, sub-pixel localization) and quality, but only on the
+ * bounding boxes of the cells instead of the whole field.
+ * <ul>
+ * <li>the kernel of TrackMate, C * (2 - r^2 / sigma^2) * exp(-r^2 / 2 sigma^2) with
+ * sigma = radius / sqrt(2), r and sigma calibrated and C = 1 / 20 / (2 pi sigma^2), is the
+ * sum of two separable kernels : each box is convolved by 1D kernels, rows then columns, each
+ * sampled at the pixel size of its axis</li>
+ * <li>the spots are the 3x3 local maxima above the quality threshold, refined by fitting a
+ * quadratic on their neighbourhood</li>
+ * <li>a margin of the kernel size is read around each box, so the result does not depend on
+ * the boxes and a maximum in two overlapping boxes is kept once</li>
+ * </ul>
+ *
+ * @author Tong LI, mail: tongli.bioinfo@gmail.com
+ */
+public class LogSpotDetector {
+   private ImageProcessor ip_;
+   private int width_;
+   private int height_;
+   private double pixelWidth_;
+   private double pixelHeight_;
+   private double radius_;
+   private double threshold_;
+   private int halfX_;
+   private int halfY_;
+   // exp(-t^2 / 2 sigma^2) and C * (1 - t^2 / sigma^2) * exp(-t^2 / 2 sigma^2), t calibrated
+   // from -half to half pixels of the axis
+   private double[] gaussX_;
+   private double[] laplaceX_;
+   private double[] gaussY_;
+   private double[] laplaceY_;
+
+   /**
+    * @param image     z projected fluo image
+    * @param radius    radius of the spots, calibrated
+    * @param threshold quality threshold
+    */
+   public LogSpotDetector(ImagePlus image, double radius, double threshold) {
+      ip_ = image.getProcessor();
+      width_ = image.getWidth();
+      height_ = image.getHeight();
+      pixelWidth_ = image.getCalibration().pixelWidth;
+      pixelHeight_ = image.getCalibration().pixelHeight;
+      radius_ = radius;
+      threshold_ = threshold;
+      // optimal sigma of the LoG for 2D, calibrated, like TrackMate
+      double sigma = radius / Math.sqrt(2);
+      double c = 1d / 20d * Math.pow(1d / sigma / Math.sqrt(2 * Math.PI), 2);
+      halfX_ = half(sigma / pixelWidth_);
+      halfY_ = half(sigma / pixelHeight_);
+      gaussX_ = new double[2 * halfX_ + 1];
+      laplaceX_ = new double[2 * halfX_ + 1];
+      fillKernels(gaussX_, laplaceX_, halfX_, pixelWidth_, sigma, c);
+      gaussY_ = new double[2 * halfY_ + 1];
+      laplaceY_ = new double[2 * halfY_ + 1];
+      fillKernels(gaussY_, laplaceY_, halfY_, pixelHeight_, sigma, c);
+   }
+
+   /**
+    * @param sigmaPixels sigma in pixels of the axis
+    * @return half size of the kernels of the axis, in pixels : the kernel of TrackMate has
+    * 3 + 2 * (int) (3 * sigma + 0.5) pixels, the truncation changes the response to the background
+    */
+   private static int half(double sigmaPixels) {
+      return 1 + (int) (3 * sigmaPixels + 0.5);
+   }
+
+   private static void fillKernels(double[] gauss, double[] laplace, int half, double pixelSize, double sigma,
+                                   double c) {
+      for (int i = -half; i <= half; i++) {
+         double t = i * pixelSize;
+         double e = Math.exp(-t * t / 2d / sigma / sigma);
+         gauss[i + half] = e;
+         laplace[i + half] = c * (1 - t * t / sigma / sigma) * e;
+      }
+   }
+
+   /**
+    * @param boxes regions to scan, in pixels
+    * @return spots found, calibrated
+    */
+   public SpotTable detect(Rectangle[] boxes) {
+      SpotTable[] found = new SpotTable[boxes.length];
+      int[][] pixels = new int[boxes.length][];
+      PipelineExecutor.forEach(0, boxes.length, b -> {
+         found[b] = new SpotTable();
+         pixels[b] = detect(boxes[b], found[b]);
+      });
+      SpotTable spots = new SpotTable();
+      BitSet kept = new BitSet(width_ * height_);
+      for (int b = 0; b < boxes.length; b++) {
+         for (int row = 0; row < found[b].size(); row++) {
+            if (!kept.get(pixels[b][row])) {
+               kept.set(pixels[b][row]);
+               spots.add(found[b].getX(row), found[b].getY(row), found[b].getZ(row), found[b].getRadius(row),
+                     found[b].getQuality(row));
+            }
+         }
+      }
+      return spots;
+   }
+
+   /**
+    * @return index of the pixel of each spot added
+    */
+   private int[] detect(Rectangle box, SpotTable spots) {
+      Rectangle inside = box.intersection(new Rectangle(width_, height_));
+      if (inside.isEmpty()) {
+         return new int[0];
+      }
+      // LoG on the box and its neighbours, computed from the image around with the median
+      Rectangle log = grow(inside, 1, 1);
+      Rectangle input = grow(log, halfX_, halfY_);
+      float[] median = median(grow(input, 1, 1), input);
+      float[] response = convolve(median, input, log);
+      int[] pixels = new int[16];
+      for (int y = inside.y; y < inside.y + inside.height; y++) {
+         for (int x = inside.x; x < inside.x + inside.width; x++) {
+            float v = response[(y - log.y) * log.width + x - log.x];
+            if (v > threshold_ && isMaximum(response, log, x, y, v)) {
+               double[] refined = refine(response, log, x, y);
+               if (spots.size() == pixels.length) {
+                  pixels = Arrays.copyOf(pixels, 2 * pixels.length);
+               }
+               pixels[spots.size()] = y * width_ + x;
+               spots.add(refined[0] * pixelWidth_, refined[1] * pixelHeight_, 0, radius_, refined[2]);
+            }
+         }
+      }
+      return pixels;
+   }
+
+   private Rectangle grow(Rectangle r, int marginX, int marginY) {
+      Rectangle grown = new Rectangle(r.x - marginX, r.y - marginY, r.width + 2 * marginX, r.height + 2 * marginY);
+      return grown.intersection(new Rectangle(width_, height_));
+   }
+
+   /**
+    * 3x3 median of the image on the region, from the pixels of source (edges replicated)
+    */
+   private float[] median(Rectangle source, Rectangle region) {
+      float[] pixels = new float[source.width * source.height];
+      for (int y = 0; y < source.height; y++) {
+         for (int x = 0; x < source.width; x++) {
+            pixels[y * source.width + x] = ip_.getf(source.x + x, source.y + y);
+         }
+      }
+      float[] median = new float[region.width * region.height];
+      float[] window = new float[9];
+      for (int y = region.y; y < region.y + region.height; y++) {
+         for (int x = region.x; x < region.x + region.width; x++) {
+            int n = 0;
+            for (int dy = -1; dy <= 1; dy++) {
+               int sy = clamp(y + dy, source.y, source.y + source.height) - source.y;
+               for (int dx = -1; dx <= 1; dx++) {
+                  int sx = clamp(x + dx, source.x, source.x + source.width) - source.x;
+                  window[n++] = pixels[sy * source.width + sx];
+               }
+            }
+            Arrays.sort(window);
+            median[(y - region.y) * region.width + x - region.x] = window[4];
+         }
+      }
+      return median;
+   }
+
+   /**
+    * LoG of the pixels of input on the region, rows then columns
+    */
+   private float[] convolve(float[] pixels, Rectangle input, Rectangle region) {
+      int n = region.width * input.height;
+      double[] rowsGauss = new double[n];
+      double[] rowsLaplace = new double[n];
+      for (int y = 0; y < input.height; y++) {
+         for (int x = region.x; x < region.x + region.width; x++) {
+            double g = 0;
+            double l = 0;
+            for (int t = -halfX_; t <= halfX_; t++) {
+               float v = pixels[y * input.width + clamp(x + t, input.x, input.x + input.width) - input.x];
+               g += gaussX_[t + halfX_] * v;
+               l += laplaceX_[t + halfX_] * v;
+            }
+            rowsGauss[y * region.width + x - region.x] = g;
+            rowsLaplace[y * region.width + x - region.x] = l;
+         }
+      }
+      float[] response = new float[region.width * region.height];
+      for (int y = region.y; y < region.y + region.height; y++) {
+         for (int x = 0; x < region.width; x++) {
+            double sum = 0;
+            for (int t = -halfY_; t <= halfY_; t++) {
+               int i = (clamp(y + t, input.y, input.y + input.height) - input.y) * region.width + x;
+               sum += laplaceY_[t + halfY_] * rowsGauss[i] + gaussY_[t + halfY_] * rowsLaplace[i];
+            }
+            response[(y - region.y) * region.width + x] = (float) sum;
+         }
+      }
+      return response;
+   }
+
+   private static int clamp(int v, int min, int max) {
+      return v < min ? min : v >= max ? max - 1 : v;
+   }
+
+   /**
+    * @return value of the LoG, neighbours outside of the image mirrored
+    */
+   private float get(float[] response, Rectangle region, int x, int y) {
+      x = x < 0 ? 1 : x >= width_ ? width_ - 2 : x;
+      y = y < 0 ? 1 : y >= height_ ? height_ - 2 : y;
+      x = clamp(x, region.x, region.x + region.width);
+      y = clamp(y, region.y, region.y + region.height);
+      return response[(y - region.y) * region.width + x - region.x];
+   }
+
+   private boolean isMaximum(float[] response, Rectangle region, int x, int y, float v) {
+      for (int dy = -1; dy <= 1; dy++) {
+         for (int dx = -1; dx <= 1; dx++) {
+            if ((dx != 0 || dy != 0) && get(response, region, x + dx, y + dy) > v) {
+               return false;
+            }
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Quadratic fit of the 3x3 neighbourhood, kept on the pixel if the maximum of the fit is
+    * further than half a pixel
+    *
+    * @return x, y in pixels and quality at the maximum of the fit
+    */
+   private double[] refine(float[] response, Rectangle region, int x, int y) {
+      double v = get(response, region, x, y);
+      double left = get(response, region, x - 1, y);
+      double right = get(response, region, x + 1, y);
+      double up = get(response, region, x, y - 1);
+      double down = get(response, region, x, y + 1);
+      double gx = (right - left) / 2;
+      double gy = (down - up) / 2;
+      double hxx = right - 2 * v + left;
+      double hyy = down - 2 * v + up;
+      double hxy = (get(response, region, x + 1, y + 1) - get(response, region, x + 1, y - 1)
+            - get(response, region, x - 1, y + 1) + get(response, region, x - 1, y - 1)) / 4;
+      double det = hxx * hyy - hxy * hxy;
+      if (det != 0) {
+         double ox = -(hyy * gx - hxy * gy) / det;
+         double oy = -(hxx * gy - hxy * gx) / det;
+         if (Math.abs(ox) <= 0.5 && Math.abs(oy) <= 0.5) {
+            return new double[]{x + ox, y + oy, v + 0.5 * (gx * ox + gy * oy)};
+         }
+      }
+      return new double[]{x, y, v};
+   }
+}
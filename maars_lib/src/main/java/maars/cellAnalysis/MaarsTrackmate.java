@@ -3,14 +3,17 @@ package maars.cellAnalysis;
 import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.SelectionModel;
 import fiji.plugin.trackmate.Settings;
+import fiji.plugin.trackmate.Spot;
+import fiji.plugin.trackmate.SpotCollection;
 import fiji.plugin.trackmate.TrackMate;
 import fiji.plugin.trackmate.detection.LogDetectorFactory;
-import fiji.plugin.trackmate.features.spot.*;
+import fiji.plugin.trackmate.features.spot.SpotIntensityAnalyzerFactory;
 import fiji.plugin.trackmate.visualization.hyperstack.HyperStackDisplayer;
 import ij.IJ;
 import ij.ImagePlus;
 import maars.utils.ImgUtils;
 
+import java.awt.Rectangle;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -24,15 +27,8 @@ public class MaarsTrackmate {
       settings = new Settings();
       settings.setFrom(img);
 
-      // Computer different features (in order)
-
-      settings.addSpotAnalyzerFactory(new SpotIntensityAnalyzerFactory<>());
-      settings.addSpotAnalyzerFactory(new SpotContrastAndSNRAnalyzerFactory<>());
-      settings.addSpotAnalyzerFactory(new SpotMorphologyAnalyzerFactory<>());
-      settings.addSpotAnalyzerFactory(new SpotRadiusEstimatorFactory<>());
-      settings.addSpotAnalyzerFactory(new SpotContrastAnalyzerFactory<>());
-
-      // Set up detection parameters.
+      // Set up detection parameters. The features are computed later, only for the spots kept
+      // (see computeSpotFeatures)
 
       settings.detectorFactory = new LogDetectorFactory<>();
       Map<String, Object> detectorSettings = new HashMap<>();
@@ -46,20 +42,91 @@ public class MaarsTrackmate {
 
    /**
     * Take parameters in the constructor then initalize trakemate object to get
-    * unfiltered spots.
+    * unfiltered spots, with their position, radius and quality only.
     *
     * @return Model a Trackmate style data structure
     */
    public Model doDetection() {
       TrackMate trackmate = new TrackMate(settings);
+      // the images are already analysed in parallel in the pool of the pipeline
+      trackmate.setNumThreads(1);
 
       trackmate.execDetection();
 
       trackmate.execInitialSpotFiltering();
 
+      return trackmate.getModel();
+   }
+
+   /**
+    * Compute the intensity features of the spots kept after the selection of the best ones and
+    * their assignment to the cells, they become the spots of the model. The analysis of the cells
+    * only reads the position and the quality, so the other analyzers (contrast, morphology,
+    * radius estimation) are not run at all.
+    *
+    * @param img   image of the detection
+    * @param model model of the detection
+    * @param spots spots kept
+    */
+   public static void computeSpotFeatures(ImagePlus img, Model model, Iterable<Spot> spots) {
+      SpotCollection kept = new SpotCollection();
+      for (Spot s : spots) {
+         kept.add(s, 0);
+      }
+      model.setSpots(kept, false);
+      Settings settings = new Settings();
+      settings.setFrom(img);
+      settings.addSpotAnalyzerFactory(new SpotIntensityAnalyzerFactory<>());
+      TrackMate trackmate = new TrackMate(model, settings);
+      trackmate.setNumThreads(1);
       trackmate.computeSpotFeatures(false);
+   }
 
-      return trackmate.getModel();
+   /**
+    * Run TrackMate and LogSpotDetector on the whole image and log how their spots match, to
+    * validate the detector of MAARS against the reference. Each TrackMate spot is matched to the
+    * closest spot of MAARS within the spot radius.
+    *
+    * @param img     z projected fluo image
+    * @param radius  radius of the spots, calibrated
+    * @param quality quality threshold
+    * @return number of TrackMate spots without match plus number of MAARS spots without match
+    */
+   public static int compareDetectors(ImagePlus img, double radius, double quality) {
+      Model model = new MaarsTrackmate(img, radius, quality).doDetection();
+      SpotTable spots = new LogSpotDetector(img, radius, quality).detect(
+            new Rectangle[]{new Rectangle(img.getWidth(), img.getHeight())});
+      boolean[] matched = new boolean[spots.size()];
+      int nbTrackmate = 0;
+      int nbMatched = 0;
+      double maxDistance = 0;
+      double maxQualityError = 0;
+      for (Spot s : model.getSpots().iterable(false)) {
+         nbTrackmate++;
+         int closest = -1;
+         double closestDistance = radius;
+         for (int row = 0; row < spots.size(); row++) {
+            double dx = spots.getX(row) - s.getFeature(Spot.POSITION_X);
+            double dy = spots.getY(row) - s.getFeature(Spot.POSITION_Y);
+            double distance = Math.sqrt(dx * dx + dy * dy);
+            if (!matched[row] && distance <= closestDistance) {
+               closest = row;
+               closestDistance = distance;
+            }
+         }
+         if (closest >= 0) {
+            matched[closest] = true;
+            nbMatched++;
+            maxDistance = Math.max(maxDistance, closestDistance);
+            double q = s.getFeature(Spot.QUALITY);
+            maxQualityError = Math.max(maxQualityError, Math.abs(spots.getQuality(closest) - q) / Math.abs(q));
+         }
+      }
+      IJ.log("TrackMate : " + nbTrackmate + " spots, MAARS : " + spots.size() + " spots, " + nbMatched
+            + " matched");
+      IJ.log("Largest distance between matched spots : " + maxDistance + " " + img.getCalibration().getUnit()
+            + ", largest relative difference of quality : " + maxQualityError);
+      return nbTrackmate - nbMatched + spots.size() - nbMatched;
    }
 
    public static void executeTrackmate(ImagePlus img, double spotRadius, double quality) {
@@ -67,6 +134,7 @@ public class MaarsTrackmate {
          ImagePlus zProjectedFluoImg = ImgUtils.zProject(img, img.getCalibration());
          MaarsTrackmate tmTest = new MaarsTrackmate(zProjectedFluoImg, spotRadius, quality);
          Model model = tmTest.doDetection();
+         computeSpotFeatures(zProjectedFluoImg, model, model.getSpots().iterable(false));
          model.getSpots().setVisible(true);
          SelectionModel selectionModel = new SelectionModel(model);
          HyperStackDisplayer displayer = new HyperStackDisplayer(model, selectionModel, zProjectedFluoImg);
@@ -1,13 +1,9 @@
 package maars.cellAnalysis;
 
-import fiji.plugin.trackmate.Spot;
-import maars.utils.CollectionUtils;
 import org.apache.commons.math3.geometry.euclidean.threed.Vector3D;
 import org.apache.commons.math3.util.FastMath;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Objects;
+import java.util.Arrays;
 
 public class SpotSetAnalyzor {
    // Names of parameters
@@ -20,13 +16,19 @@ public class SpotSetAnalyzor {
    public final static String CellCenterToSpCenterLen = "CellCenterToSpCenterLen";
    public final static String CellCenterToSpCenterAng = "CellCenterToSpCenterAng";
    public final static String[] GeoParamSet = {NbOfSpotDetected, SpAngToMaj, SpLength, CellCenterToSpCenterLen, CellCenterToSpCenterAng};
-   private double fakeSpotQuality = 0;
+   // all parameters, in the order of the geometry arrays and of the columns of the csv
+   public final static String[] AllGeoParamSet = {CellCenterToSpCenterAng, CellCenterToSpCenterLen, NbOfSpotDetected,
+         SpAngToMaj, SpCenterX, SpCenterY, SpCenterZ, SpLength};
+   // indices of the parameters in AllGeoParamSet
+   public final static int CELL_CENTER_TO_SP_CENTER_ANG = 0, CELL_CENTER_TO_SP_CENTER_LEN = 1,
+         NB_OF_SPOT_DETECTED = 2, SP_ANG_TO_MAJ = 3, SP_CENTER_X = 4, SP_CENTER_Y = 5, SP_CENTER_Z = 6, SP_LENGTH = 7;
    // z equals to 0 because fitting ellipse in Analyzer do not give z
    // position.
    private double fakeSpotZ = 0;
-   private double fakeSpotRadius = 0.25;
    private double x, y, major, angle_, calibratedXBase, calibratedYBase;
-   private ArrayList<Spot> poles;
+   private SpotTable spots_;
+   // rows of the 2 spots corresponding to each poles
+   private int[] poles;
 
    /**
     * @param x               x_centroid of cell in origin fluo image
@@ -46,34 +48,44 @@ public class SpotSetAnalyzor {
       this.calibratedYBase = calibratedYBase;
    }
 
+   /**
+    * @param param name of a parameter
+    * @return its index in the geometry arrays, -1 if unknown
+    */
+   public static int geoParamIndex(String param) {
+      return Arrays.asList(AllGeoParamSet).indexOf(param);
+   }
+
    /**
     * Calculate the distance between spots
     *
-    * @param s1 the first spot
-    * @param s2 the second spot
+    * @param spots table of the spots
+    * @param row1  row of the first spot
+    * @param row2  row of the second spot
     * @return distance
     */
-   public static double distance(Spot s1, Spot s2) {
-      double dx = s1.getFeature(Spot.POSITION_X) - s2.getFeature(Spot.POSITION_X);
-      double dy = s1.getFeature(Spot.POSITION_Y) - s2.getFeature(Spot.POSITION_Y);
-      double dz = s1.getFeature(Spot.POSITION_Z) - s2.getFeature(Spot.POSITION_Z);
+   public static double distance(SpotTable spots, int row1, int row2) {
+      double dx = spots.getX(row1) - spots.getX(row2);
+      double dy = spots.getY(row1) - spots.getY(row2);
+      double dz = spots.getZ(row1) - spots.getZ(row2);
       return FastMath.sqrt(dx * dx + dy * dy + dz * dz);
    }
 
    /**
-    * Analyse spotset and return a hashmap of features
+    * Analyse spotset and return its geometry, NaN for the parameters without value
     *
-    * @param spotSet set of spots to analyze
+    * @param spots table of the spots
+    * @param from  first row of the set of spots to analyze
+    * @param to    last row of the set, excluded
+    * @return value of each parameter, in the order of AllGeoParamSet
     */
-   HashMap<String, Object> compute(Iterable<Spot> spotSet) {
-      // this functions modify directly coordinates of spot in
-      // soc, because it's back-up
-      // cptgeometry.centerSpots(spotSet);
-      HashMap<String, Object> geometry;
-      int setSize = CollectionUtils.size(spotSet);
+   double[] compute(SpotTable spots, int from, int to) {
+      double[] geometry;
+      spots_ = spots;
+      int setSize = to - from;
       if (setSize > 1) {
-         poles = findMostDistant2Spots(spotSet);
-         if (!overlap(poles.get(0), poles.get(1))) {
+         poles = findMostDistant2Spots(from, to);
+         if (!overlap(poles[0], poles[1])) {
             geometry = computeGeometry(setSize);
          } else {
             geometry = emptyGeometry();
@@ -84,87 +96,67 @@ public class SpotSetAnalyzor {
       return geometry;
    }
 
-   private HashMap<String, Object> computeGeometry(int setSize) {
-      HashMap<String, Object> geometry = new HashMap<>();
-      geometry.put(NbOfSpotDetected, setSize);
+   private double[] computeGeometry(int setSize) {
+      double[] geometry = new double[AllGeoParamSet.length];
+      geometry[NB_OF_SPOT_DETECTED] = setSize;
       Vector3D polesVec = getSpAsVector(poles);
-      geometry.put(SpLength, polesVec.getNorm());
-      Spot spCenter = getCenter(poles);
-      geometry.put(SpCenterX, spCenter.getFeature(Spot.POSITION_X));
-      geometry.put(SpCenterY, spCenter.getFeature(Spot.POSITION_Y));
-      geometry.put(SpCenterZ, spCenter.getFeature(Spot.POSITION_Z));
-      geometry.put(SpAngToMaj, getSpAngToMajAxis(polesVec));
-      Spot cellCenter = new Spot(x - calibratedXBase, y - calibratedYBase, fakeSpotZ, fakeSpotRadius,
-            fakeSpotQuality);
-      geometry.put(CellCenterToSpCenterLen, distance(spCenter, cellCenter));
-      geometry.put(CellCenterToSpCenterAng, Vector3D.angle(spot2Vector3D(spCenter).subtract(spot2Vector3D(cellCenter)), Vector3D.PLUS_I));
+      geometry[SP_LENGTH] = polesVec.getNorm();
+      Vector3D spCenter = getCenter(poles);
+      geometry[SP_CENTER_X] = spCenter.getX();
+      geometry[SP_CENTER_Y] = -spCenter.getY();
+      geometry[SP_CENTER_Z] = spCenter.getZ();
+      geometry[SP_ANG_TO_MAJ] = getSpAngToMajAxis(polesVec);
+      Vector3D cellCenter = new Vector3D(x - calibratedXBase, -(y - calibratedYBase), fakeSpotZ);
+      geometry[CELL_CENTER_TO_SP_CENTER_LEN] = spCenter.distance(cellCenter);
+      geometry[CELL_CENTER_TO_SP_CENTER_ANG] = Vector3D.angle(spCenter.subtract(cellCenter), Vector3D.PLUS_I);
       return geometry;
    }
 
-   ArrayList<Spot> getPoles() {
+   /**
+    * @return rows of the 2 spots corresponding to each poles
+    */
+   int[] getPoles() {
       return this.poles;
    }
 
    /**
     * return a vector from two given spots
     *
-    * @param poles the 2 spots corresponding to each poles
+    * @param poles rows of the 2 spots corresponding to each poles
     * @return the vector
     */
-   private Vector3D getSpAsVector(ArrayList<Spot> poles) {
-      Spot sp1 = poles.get(0);
-      Spot sp2 = poles.get(1);
-      Vector3D v1 = spot2Vector3D(sp1);
-      Vector3D v2 = spot2Vector3D(sp2);
+   private Vector3D getSpAsVector(int[] poles) {
+      Vector3D v1 = spot2Vector3D(poles[0]);
+      Vector3D v2 = spot2Vector3D(poles[1]);
       return v1.subtract(v2);
    }
 
-   /**
-    * re-calculate the position of poles. Newly returned coordinates
-    * corresponding the one in cropped image
-    *
-    * @param spotSet set of spots
-    * @return spotSet changed set of spots
-    */
-   public Iterable<Spot> centerSpots(Iterable<Spot> spotSet) {
-      for (Spot s : spotSet) {
-         s.putFeature(Spot.POSITION_X, s.getFeature(Spot.POSITION_X) - this.calibratedXBase);
-         s.putFeature(Spot.POSITION_Y, s.getFeature(Spot.POSITION_Y) - this.calibratedYBase);
-      }
-      return spotSet;
-   }
-
    /**
     * find the poles ( find the two most distant spots)
     *
-    * @param spotSet a set of spots
-    * @return the SPBs
+    * @param from first row of the set of spots
+    * @param to   last row of the set, excluded
+    * @return rows of the SPBs
     */
-   private ArrayList<Spot> findMostDistant2Spots(Iterable<Spot> spotSet) {
-      ArrayList<Spot> poles = new ArrayList<>();
-      for (Spot s0 : spotSet) {
-         if (poles.size() < 2) {
-            poles.add(s0);
-         } else {
-            Spot s1 = poles.get(0);
-            Spot s2 = poles.get(1);
-            double tmpDis12 = distance(s1, s2);
-            double tmpDis01 = distance(s0, s1);
-            double tmpDis02 = distance(s0, s2);
-            if (tmpDis01 > tmpDis12) {
-               if (tmpDis02 > tmpDis01) {
-                  poles.remove(0);
-               } else {
-                  poles.remove(1);
-               }
-               poles.add(s0);
-            } else if (tmpDis02 > tmpDis12) {
-               if (tmpDis01 > tmpDis02) {
-                  poles.remove(1);
-               } else {
-                  poles.remove(0);
-               }
-               poles.add(s0);
+   private int[] findMostDistant2Spots(int from, int to) {
+      int[] poles = {from, from + 1};
+      for (int s0 = from + 2; s0 < to; s0++) {
+         int s1 = poles[0];
+         int s2 = poles[1];
+         double tmpDis12 = distance(spots_, s1, s2);
+         double tmpDis01 = distance(spots_, s0, s1);
+         double tmpDis02 = distance(spots_, s0, s2);
+         if (tmpDis01 > tmpDis12) {
+            if (tmpDis02 > tmpDis01) {
+               poles = new int[]{s2, s0};
+            } else {
+               poles = new int[]{s1, s0};
+            }
+         } else if (tmpDis02 > tmpDis12) {
+            if (tmpDis01 > tmpDis02) {
+               poles = new int[]{s1, s0};
+            } else {
+               poles = new int[]{s2, s0};
             }
          }
       }
@@ -172,18 +164,16 @@ public class SpotSetAnalyzor {
    }
 
    /**
-    * get the center spot of poles
+    * get the center of poles, as a vector (see spot2Vector3D)
     *
-    * @param poles the 2 SPBs
-    * @return center spot
+    * @param poles rows of the 2 SPBs
+    * @return center of the poles
     */
-   private Spot getCenter(ArrayList<Spot> poles) {
-      Spot s1 = poles.get(0);
-      Spot s2 = poles.get(1);
-      double centerx = (s1.getFeature(Spot.POSITION_X) + s2.getFeature(Spot.POSITION_X)) / 2 - calibratedXBase;
-      double centery = (s1.getFeature(Spot.POSITION_Y) + s2.getFeature(Spot.POSITION_Y)) / 2 - calibratedYBase;
-      double centerz = (s1.getFeature(Spot.POSITION_Z) + s2.getFeature(Spot.POSITION_Z)) / 2 - fakeSpotZ;
-      return new Spot(centerx, centery, centerz, fakeSpotRadius, fakeSpotQuality);
+   private Vector3D getCenter(int[] poles) {
+      double centerx = (spots_.getX(poles[0]) + spots_.getX(poles[1])) / 2 - calibratedXBase;
+      double centery = (spots_.getY(poles[0]) + spots_.getY(poles[1])) / 2 - calibratedYBase;
+      double centerz = (spots_.getZ(poles[0]) + spots_.getZ(poles[1])) / 2 - fakeSpotZ;
+      return new Vector3D(centerx, -centery, centerz);
    }
 
    /**
@@ -201,12 +191,11 @@ public class SpotSetAnalyzor {
    /**
     * Create a vector from a spot (so [0,0,0] to [x,-y,z])
     *
-    * @param s a spot
+    * @param row row of a spot
     * @return a vector
     */
-   private Vector3D spot2Vector3D(Spot s) {
-      return new Vector3D(s.getFeature(Spot.POSITION_X), -s.getFeature(Spot.POSITION_Y),
-            s.getFeature(Spot.POSITION_Z));
+   private Vector3D spot2Vector3D(int row) {
+      return new Vector3D(spots_.getX(row), -spots_.getY(row), spots_.getZ(row));
    }
 
    private double getLessThan90Ang(double angle) {
@@ -217,22 +206,15 @@ public class SpotSetAnalyzor {
       return FastMath.abs(angle);
    }
 
-   private boolean overlap(Spot s1, Spot s2) {
-      return Objects.equals(s1.getFeature(Spot.POSITION_X), s2.getFeature(Spot.POSITION_X)) &&
-            Objects.equals(s1.getFeature(Spot.POSITION_Y), s2.getFeature(Spot.POSITION_Y)) &&
-            Objects.equals(s1.getFeature(Spot.POSITION_Z), s2.getFeature(Spot.POSITION_Z));
+   private boolean overlap(int s1, int s2) {
+      return spots_.getX(s1) == spots_.getX(s2) && spots_.getY(s1) == spots_.getY(s2)
+            && spots_.getZ(s1) == spots_.getZ(s2);
    }
 
-   private HashMap<String, Object> emptyGeometry() {
-      HashMap<String, Object> geometry = new HashMap<>();
-      geometry.put(NbOfSpotDetected, 1);
-      geometry.put(SpLength, "");
-      geometry.put(SpCenterX, "");
-      geometry.put(SpCenterY, "");
-      geometry.put(SpCenterZ, "");
-      geometry.put(SpAngToMaj, "");
-      geometry.put(CellCenterToSpCenterLen, "");
-      geometry.put(CellCenterToSpCenterAng, "");
+   private double[] emptyGeometry() {
+      double[] geometry = new double[AllGeoParamSet.length];
+      Arrays.fill(geometry, Double.NaN);
+      geometry[NB_OF_SPOT_DETECTED] = 1;
       return geometry;
    }
 }
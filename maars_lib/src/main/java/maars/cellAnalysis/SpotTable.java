@@ -0,0 +1,189 @@
+package maars.cellAnalysis;
+
+import fiji.plugin.trackmate.Spot;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Spots of an image in primitive columns : position and radius in calibrated units, quality,
+ * number of the cell of the spot and optional features (intensity of TrackMate for instance).
+ * TrackMate spots are only created for the rows kept or exported.
+ *
+ * @author Tong LI, mail: tongli.bioinfo@gmail.com
+ */
+public class SpotTable implements Serializable {
+   private double[] x_;
+   private double[] y_;
+   private double[] z_;
+   private double[] radius_;
+   private double[] quality_;
+   private int[] cell_;
+   private String[] features_;
+   private double[][] featureValues_;
+   private int size_;
+
+   public SpotTable() {
+      this(16);
+   }
+
+   /**
+    * @param capacity initial number of rows
+    */
+   public SpotTable(int capacity) {
+      this(capacity, new ArrayList<>());
+   }
+
+   /**
+    * @param capacity initial number of rows
+    * @param features names of the features stored in addition of the position, radius and quality
+    */
+   public SpotTable(int capacity, List<String> features) {
+      capacity = Math.max(capacity, 1);
+      x_ = new double[capacity];
+      y_ = new double[capacity];
+      z_ = new double[capacity];
+      radius_ = new double[capacity];
+      quality_ = new double[capacity];
+      cell_ = new int[capacity];
+      features_ = features.toArray(new String[0]);
+      featureValues_ = new double[features_.length][capacity];
+   }
+
+   /**
+    * @return index of the new row, in no cell and without features
+    */
+   public int add(double x, double y, double z, double radius, double quality) {
+      if (size_ == x_.length) {
+         int capacity = 2 * size_;
+         x_ = Arrays.copyOf(x_, capacity);
+         y_ = Arrays.copyOf(y_, capacity);
+         z_ = Arrays.copyOf(z_, capacity);
+         radius_ = Arrays.copyOf(radius_, capacity);
+         quality_ = Arrays.copyOf(quality_, capacity);
+         cell_ = Arrays.copyOf(cell_, capacity);
+         for (int f = 0; f < features_.length; f++) {
+            featureValues_[f] = Arrays.copyOf(featureValues_[f], capacity);
+         }
+      }
+      x_[size_] = x;
+      y_[size_] = y;
+      z_[size_] = z;
+      radius_[size_] = radius;
+      quality_[size_] = quality;
+      cell_[size_] = 0;
+      for (int f = 0; f < features_.length; f++) {
+         featureValues_[f][size_] = Double.NaN;
+      }
+      return size_++;
+   }
+
+   /**
+    * @param spot   TrackMate spot
+    * @param cellNb number of the cell of the spot
+    * @return index of the new row
+    */
+   public int add(Spot spot, int cellNb) {
+      int row = add(spot.getFeature(Spot.POSITION_X), spot.getFeature(Spot.POSITION_Y),
+            spot.getFeature(Spot.POSITION_Z), spot.getFeature(Spot.RADIUS), spot.getFeature(Spot.QUALITY));
+      cell_[row] = cellNb;
+      for (int f = 0; f < features_.length; f++) {
+         Double value = spot.getFeature(features_[f]);
+         if (value != null) {
+            featureValues_[f][row] = value;
+         }
+      }
+      return row;
+   }
+
+   /**
+    * @param other rows to append, without their cell and features
+    */
+   public void addAll(SpotTable other) {
+      for (int row = 0; row < other.size_; row++) {
+         add(other.x_[row], other.y_[row], other.z_[row], other.radius_[row], other.quality_[row]);
+      }
+   }
+
+   public int size() {
+      return size_;
+   }
+
+   public double getX(int row) {
+      return x_[row];
+   }
+
+   public double getY(int row) {
+      return y_[row];
+   }
+
+   public double getZ(int row) {
+      return z_[row];
+   }
+
+   public double getRadius(int row) {
+      return radius_[row];
+   }
+
+   public double getQuality(int row) {
+      return quality_[row];
+   }
+
+   /**
+    * @return number of the cell of the spot, 0 if none
+    */
+   public int getCell(int row) {
+      return cell_[row];
+   }
+
+   /**
+    * @param cellNb cell number
+    * @return first row of the cell, or of the next one if the cell has no spot. The rows must
+    * be sorted by cell number.
+    */
+   public int firstRowOfCell(int cellNb) {
+      int low = 0;
+      int high = size_;
+      while (low < high) {
+         int mid = (low + high) >>> 1;
+         if (cell_[mid] < cellNb) {
+            low = mid + 1;
+         } else {
+            high = mid;
+         }
+      }
+      return low;
+   }
+
+   /**
+    * @param row row of the spot
+    * @return a new TrackMate spot with the position, radius, quality and features of the row
+    */
+   public Spot toSpot(int row) {
+      Spot spot = new Spot(x_[row], y_[row], z_[row], radius_[row], quality_[row]);
+      for (int f = 0; f < features_.length; f++) {
+         if (!Double.isNaN(featureValues_[f][row])) {
+            spot.putFeature(features_[f], featureValues_[f][row]);
+         }
+      }
+      return spot;
+   }
+
+   /**
+    * @param k maximum number of spots
+    * @return TrackMate spots of the k best quality rows, in the order of the rows
+    */
+   public ArrayList<Spot> toBestSpots(int k) {
+      BestQualitySpots best = new BestQualitySpots(k);
+      for (int row = 0; row < size_; row++) {
+         best.offer(row, quality_[row]);
+      }
+      ArrayList<Spot> spots = new ArrayList<>(best.size());
+      for (int row : best.toIndices()) {
+         spots.add(toSpot(row));
+      }
+      return spots;
+   }
+}
@@ -4,132 +4,118 @@ import fiji.plugin.trackmate.Model;
 import fiji.plugin.trackmate.Spot;
 import fiji.plugin.trackmate.SpotCollection;
 
-import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.Set;
 
-public class SpotsContainer implements Serializable {
-   private HashMap<String, SpotCollection> spotsInCell_;
+/**
+ * Spots of the cells of a position : for each channel, one SpotTable per frame with the rows
+ * sorted by cell number, so the spots of a cell in a frame are a range of rows. TrackMate
+ * spots are only created for the export (see toSpotCollection).
+ */
+public class SpotsContainer {
+   private final HashMap<String, ArrayList<SpotTable>> spotsOfChannels_ = new HashMap<>();
    private Model trackmateModel;
 
    public SpotsContainer() {
    }
 
    /**
-    * Get the lowest qualit spot in the frame
+    * Keep the best quality spots, at most maxNbSpot per cell
     *
-    * @return the spot with worst quality
+    * @param spots     all the spots detected
+    * @param setSize   number of cells
+    * @param maxNbSpot maximum number of spots of a cell
+    * @return the setSize * maxNbSpot best quality spots, in their order
     */
-   static Spot findLowestQualitySpot(Iterable<Spot> spots) {
-      double min = Double.POSITIVE_INFINITY;
-      Spot lowestQualitySpot = null;
+   static ArrayList<Spot> getNBestqualitySpots(Iterable<Spot> spots, int setSize, int maxNbSpot) {
+      ArrayList<Spot> all = new ArrayList<>();
+      BestQualitySpots best = new BestQualitySpots(setSize * maxNbSpot);
       for (Spot s : spots) {
-         if (s.getFeature(Spot.QUALITY) < min) {
-            min = s.getFeature(Spot.QUALITY);
-            lowestQualitySpot = s;
-         }
-      }
-      return lowestQualitySpot;
-   }
-
-   static SpotCollection getNBestqualitySpots(SpotCollection spots, int setSize, int maxNbSpot) {
-      SpotCollection newSet = new SpotCollection();
-      Iterator<Spot> it = spots.iterator(false);
-      while (it.hasNext()) {
-         Spot s = it.next();
-         newSet.add(s, 0);
-         if (newSet.getNSpots(0, false) > setSize * maxNbSpot) {
-            newSet.remove(findLowestQualitySpot(newSet.iterable(0, false)), 0);
-         }
-      }
-      return newSet;
-   }
-
-   /**
-    * add channel
-    *
-    * @param channel channel name
-    */
-   public void addChannel(String channel) {
-      if (this.spotsInCell_ == null) {
-         this.spotsInCell_ = new HashMap<>();
+         best.offer(all.size(), s.getFeature(Spot.QUALITY));
+         all.add(s);
       }
-      if (!this.spotsInCell_.containsKey(channel)) {
-         this.spotsInCell_.put(channel, new SpotCollection());
+      ArrayList<Spot> kept = new ArrayList<>(best.size());
+      for (int i : best.toIndices()) {
+         kept.add(all.get(i));
       }
+      return kept;
    }
 
    /**
-    * put spot in specified channel / cell / frame
+    * put the spots of all cells in specified channel / frame
     *
     * @param channel channel name
     * @param frame   frame of acquisition
-    * @param spot    spot
+    * @param spots   spots of the frame, sorted by cell number
     */
-   public void putSpot(String channel, int frame, Spot spot) {
-      //TODO @SpotCollection do not provide a method to test whether it contains a spot, this may add two times the same spot
-      spotsInCell_.get(channel).add(spot, frame);
+   public synchronized void putSpots(String channel, int frame, SpotTable spots) {
+      ArrayList<SpotTable> frames = spotsOfChannels_.computeIfAbsent(channel, c -> new ArrayList<>());
+      while (frames.size() <= frame) {
+         frames.add(null);
+      }
+      frames.set(frame, spots);
    }
 
    /**
-    * Get the spot collection of cell
-    *
     * @param channel fluo channel
-    * @return SpotCollection of Trackmate
+    * @param frame   frame of acquisition
+    * @return spots of all cells in the frame, null if it was not analysed
     */
-   public SpotCollection getSpots(String channel) {
-      return this.spotsInCell_.get(channel);
+   public synchronized SpotTable getSpots(String channel, int frame) {
+      ArrayList<SpotTable> frames = spotsOfChannels_.get(channel);
+      return frames == null || frame >= frames.size() ? null : frames.get(frame);
    }
 
    /**
-    * Get the set of cell in spot collection of frame...
+    * Get the number of spot of a cell in frame ...
     *
     * @param channel fluo channel
     * @param frame   frame of acquisition
-    * @return mirror object iterable of spotCollection
+    * @param cellNb  cell number
+    * @return number of spot of the cell
     */
-   public Iterable<Spot> getSpotsInFrame(String channel, int frame) {
-      return getSpots(channel).iterable(frame, false);
+   public int getNbOfSpot(String channel, int frame, int cellNb) {
+      SpotTable spots = getSpots(channel, frame);
+      return spots == null ? 0 : spots.firstRowOfCell(cellNb + 1) - spots.firstRowOfCell(cellNb);
    }
 
    /**
-    * remove cell from specified channel / cell / frame
-    *
-    * @param channel    fluo channel
-    * @param frame      frame of acquisition
-    * @param spToRemove the spot to be removed
-    */
-   public void removeSpot(String channel, int frame, Spot spToRemove) {
-      this.spotsInCell_.get(channel).remove(spToRemove, frame);
-   }
-
-   /**
-    * Get the number of spot in spotCollection of frame ...
+    * Convert the spots of a cell to TrackMate, for the export
     *
     * @param channel fluo channel
-    * @param frame   frame of acquisition
-    * @return number of spot in collection
+    * @param cellNb  cell number
+    * @return SpotCollection of Trackmate, spots of the cell in all frames
     */
-   public int getNbOfSpot(String channel, int frame) {
-      return getSpots(channel).getNSpots(frame, false);
+   public synchronized SpotCollection toSpotCollection(String channel, int cellNb) {
+      SpotCollection collection = new SpotCollection();
+      ArrayList<SpotTable> frames = spotsOfChannels_.get(channel);
+      for (int frame = 0; frames != null && frame < frames.size(); frame++) {
+         SpotTable spots = frames.get(frame);
+         if (spots != null) {
+            for (int row = spots.firstRowOfCell(cellNb); row < spots.firstRowOfCell(cellNb + 1); row++) {
+               collection.add(spots.toSpot(row), frame);
+            }
+         }
+      }
+      return collection;
    }
 
-   public Model getTrackmateModel() {
+   public synchronized Model getTrackmateModel() {
       return trackmateModel;
    }
 
    /**
-    * Save header of Trackmate output and spot collection
+    * Save header of Trackmate output, the spots are kept in the tables
     *
     * @param model model from Trackmate
     */
-   public void setTrackmateModel(Model model) {
+   public synchronized void setTrackmateModel(Model model) {
       if (this.trackmateModel == null)
          this.trackmateModel = model;
    }
 
-   public Set<String> getUsingChannels() {
-      return this.spotsInCell_.keySet();
+   public synchronized Set<String> getUsingChannels() {
+      return this.spotsOfChannels_.keySet();
    }
 }
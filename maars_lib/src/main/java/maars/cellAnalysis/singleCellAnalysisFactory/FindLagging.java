@@ -1,45 +1,44 @@
 package maars.cellAnalysis.singleCellAnalysisFactory;
 
-import fiji.plugin.trackmate.Spot;
 import ij.gui.Line;
 import ij.measure.Calibration;
 import maars.agents.Cell;
 import maars.cellAnalysis.SpotSetAnalyzor;
-import maars.utils.CollectionUtils;
+import maars.cellAnalysis.SpotTable;
 import org.apache.commons.math3.util.FastMath;
 
-import java.util.ArrayList;
-
 public class FindLagging {
 
    /**
     * lable cells with lagging or aligned Kts in SOC object
     *
     * @param cell       Cell object
-    * @param spotSet    spotset in current cell
+    * @param spots      table of the spots of the frame
+    * @param from       first row of the spots of the cell
+    * @param to         last row of the spots of the cell, excluded
     * @param fluoImgCal calibration of fluo img
-    * @param poles      the SPB (spots)
+    * @param poles      rows of the SPB (spots)
     * @param radius     raidus of spot
     * @param frame      current frame number
     */
-   public FindLagging(Cell cell, Iterable<Spot> spotSet, Calibration fluoImgCal,
-                      ArrayList<Spot> poles, double radius, int frame) {
+   public FindLagging(Cell cell, SpotTable spots, int from, int to, Calibration fluoImgCal,
+                      int[] poles, double radius, int frame) {
       // spbs for exemple
       double discardLaggingSpotRange = 1;
-      int setSize = CollectionUtils.size(spotSet);
+      int setSize = to - from;
       if (setSize > 2) {
          Line spLine = new Line(
-               (int) FastMath.round(poles.get(0).getFeature(Spot.POSITION_X) / fluoImgCal.pixelWidth),
-               (int) FastMath.round(poles.get(0).getFeature(Spot.POSITION_Y) / fluoImgCal.pixelHeight),
-               (int) FastMath.round(poles.get(1).getFeature(Spot.POSITION_X) / fluoImgCal.pixelWidth),
-               (int) FastMath.round(poles.get(1).getFeature(Spot.POSITION_Y) / fluoImgCal.pixelHeight));
+               (int) FastMath.round(spots.getX(poles[0]) / fluoImgCal.pixelWidth),
+               (int) FastMath.round(spots.getY(poles[0]) / fluoImgCal.pixelHeight),
+               (int) FastMath.round(spots.getX(poles[1]) / fluoImgCal.pixelWidth),
+               (int) FastMath.round(spots.getY(poles[1]) / fluoImgCal.pixelHeight));
          double spotDiameter = 2 * radius / fluoImgCal.pixelWidth;
          Line.setWidth((int) FastMath.round(spotDiameter));
-         for (Spot s : spotSet) {
-            if (!s.equals(poles.get(0)) && !s.equals(poles.get(1))) {
-               if (spLine.contains((int) FastMath.round(s.getFeature(Spot.POSITION_X) / fluoImgCal.pixelWidth),
-                     (int) FastMath.round(s.getFeature(Spot.POSITION_Y) / fluoImgCal.pixelHeight))) {
-                  if (SpotSetAnalyzor.distance(s, poles.get(0)) > discardLaggingSpotRange * spotDiameter || SpotSetAnalyzor.distance(s, poles.get(0)) > discardLaggingSpotRange * spotDiameter) {
+         for (int s = from; s < to; s++) {
+            if (s != poles[0] && s != poles[1]) {
+               if (spLine.contains((int) FastMath.round(spots.getX(s) / fluoImgCal.pixelWidth),
+                     (int) FastMath.round(spots.getY(s) / fluoImgCal.pixelHeight))) {
+                  if (SpotSetAnalyzor.distance(spots, s, poles[0]) > discardLaggingSpotRange * spotDiameter || SpotSetAnalyzor.distance(spots, s, poles[0]) > discardLaggingSpotRange * spotDiameter) {
                      // potential lagging, this lagging will be confirmed only if it's later than anaB onset
                      cell.addSpotInBtwnFrame(frame);
                   }
@@ -62,14 +62,14 @@ class CellChartPanel extends JPanel {
       XYSeries series;
       final XYPlot subplot = new XYPlot();
       int i = 0;
+      int paramIndex = SpotSetAnalyzor.geoParamIndex(param);
       for (String channel : cell.getGeometryContainer().getUsingChannels()) {
          XYSeriesCollection seriesCollection = new XYSeriesCollection();
          series = new XYSeries(param + "_" + channel);
-         for (Integer frame : cell.getGeometryContainer().getGeosInChannel(channel).keySet()) {
-            String currnetParamvalue = cell.getGeometryContainer().getGeosInChannel(channel).get(frame).get(param).toString();
-            if (!currnetParamvalue.isEmpty()) {
-               series.add(Double.valueOf(frame),
-                     new Double(currnetParamvalue));
+         double[] values = cell.getGeometryContainer().getSeries(channel, paramIndex);
+         for (int frame = 0; frame < values.length; frame++) {
+            if (!Double.isNaN(values[frame])) {
+               series.add(frame, values[frame]);
             }
          }
          seriesCollection.addSeries(series);
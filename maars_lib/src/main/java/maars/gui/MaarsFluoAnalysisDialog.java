@@ -1,9 +1,11 @@
 package maars.gui;
 
 import ij.IJ;
+import ij.ImagePlus;
 import maars.cellAnalysis.MaarsTrackmate;
 import maars.main.MaarsParameters;
 import maars.utils.GuiUtils;
+import maars.utils.ImgUtils;
 
 import javax.swing.*;
 import java.awt.*;
@@ -161,13 +163,27 @@ public class MaarsFluoAnalysisDialog extends JDialog {
          double quality = Double.valueOf(qualityTf.getText());
          MaarsTrackmate.executeTrackmate(IJ.getImage(), radius, quality);
       });
+      // validate the detector of MAARS against TrackMate on the same image, results in the log
+      JButton compareBut = new JButton("Compare");
+      compareBut.setToolTipText("Compare the spots of the MAARS detector with the ones of TrackMate");
+      compareBut.addActionListener(actionEvent -> {
+         double radius = Double.valueOf(radiusTf.getText());
+         double quality = Double.valueOf(qualityTf.getText());
+         ImagePlus img = IJ.getImage();
+         new Thread(() -> MaarsTrackmate.compareDetectors(ImgUtils.zProject(img, img.getCalibration()),
+               radius, quality)).start();
+      });
+      JPanel previewButs = new JPanel(new GridLayout(1, 2));
+      previewButs.setBackground(GuiUtils.bgColor);
+      previewButs.add(previewBut);
+      previewButs.add(compareBut);
       JRadioButton radioBut = new JRadioButton();
       radioBut.setSelected(parameters.getDetectionChForMitosis().equals(ch));
       components.add(chLabel);
       components.add(maxDotTf);
       components.add(radiusTf);
       components.add(qualityTf);
-      components.add(previewBut);
+      components.add(previewButs);
       components.add(radioBut);
 
       return components;
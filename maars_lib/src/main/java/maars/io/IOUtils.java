@@ -2,6 +2,8 @@ package maars.io;
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.gui.Roi;
+import ij.io.RoiEncoder;
 import ij.plugin.Duplicator;
 import maars.agents.Cell;
 import maars.agents.DefaultSetOfCells;
@@ -13,6 +15,8 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.Properties;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 /**
  * Created by tongli on 27/12/2016.
@@ -31,6 +35,27 @@ public class IOUtils {
       ps.close();
    }
 
+   /**
+    * Save rois in a zip file, like the RoiManager does, without using it
+    *
+    * @param rois rois to save, named by their index (from 1) if they have no name
+    * @param path path of the zip file
+    */
+   public static void saveRois(Roi[] rois, String path) {
+      try (ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+           DataOutputStream out = new DataOutputStream(zos)) {
+         RoiEncoder encoder = new RoiEncoder(out);
+         for (int i = 0; i < rois.length; i++) {
+            String name = rois[i].getName() == null ? String.valueOf(i + 1) : rois[i].getName();
+            zos.putNextEntry(new ZipEntry(name + ".roi"));
+            encoder.write(rois[i]);
+            out.flush();
+         }
+      } catch (IOException e) {
+         IOUtils.printErrorToIJLog(e);
+      }
+   }
+
    public static void writeToFile(String filePath, Properties properties) {
       try (PrintWriter out = new PrintWriter(filePath)) {
          properties.store(out, "");
@@ -69,7 +94,7 @@ public class IOUtils {
       IJ.log("Saving information of each cell on disk");
       String dest = pathToDir + prefix + Maars_Interface.FLUOANALYSIS_SUFFIX + posNb + File.separator;
       FileUtils.createFolder(dest);
-      MAARSSpotsSaver spotSaver = new MAARSSpotsSaver(dest);
+      MAARSSpotsSaver spotSaver = new MAARSSpotsSaver(dest, soc.getSpotsContainer());
       MAARSGeometrySaver geoSaver = new MAARSGeometrySaver(dest);
       MAARSImgSaver imgSaver = new MAARSImgSaver(dest);
 //        TODO
@@ -0,0 +1,287 @@
+package maars.io;
+
+import ij.gui.Roi;
+import ij.gui.Wand;
+import ij.process.ByteProcessor;
+import ij.process.FloatPolygon;
+import ij.process.ImageProcessor;
+import maars.utils.FileUtils;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+
+/**
+ * Result of the segmentation of a position in a single memory-mapped file : the label map of
+ * the cells (cell number of every pixel, 0 for the background) and their measurements. Loading
+ * the cells is one mmap, no roi is decoded. The file is written from the heap to a temporary
+ * file which then replaces it, it is only mapped for reading. The layout is fixed,
+ * little-endian :
+ * <ul>
+ * <li>header of 8 ints : magic, version, width, height, number of cells, number of columns,
+ * bytes per label (2 or 4), 0</li>
+ * <li>bounding box of each cell : x, y, width, height (ints)</li>
+ * <li>measurements, column by column, in the order of Results.csv without the row number
+ * (doubles)</li>
+ * <li>label map, row by row (unsigned shorts up to 65535 cells, ints beyond)</li>
+ * </ul>
+ *
+ * @author Tong LI, mail: tongli.bioinfo@gmail.com
+ */
+public class LabelMapFile {
+   public static final String NAME = "Cells.lbl";
+   private static final int MAGIC = 0x4C42414D;
+   private static final int VERSION = 1;
+   private static final int HEADER = 32;
+   private MappedByteBuffer buffer_;
+   private int width_;
+   private int height_;
+   private int nbCells_;
+   private int nbColumns_;
+   private int bytesPerLabel_;
+   private long measurementsOffset_;
+   private long labelsOffset_;
+
+   private LabelMapFile(MappedByteBuffer buffer) throws IOException {
+      buffer_ = buffer;
+      buffer_.order(ByteOrder.LITTLE_ENDIAN);
+      if (buffer_.getInt(0) != MAGIC || buffer_.getInt(4) != VERSION) {
+         throw new IOException("Not a label map of version " + VERSION);
+      }
+      width_ = buffer_.getInt(8);
+      height_ = buffer_.getInt(12);
+      nbCells_ = buffer_.getInt(16);
+      nbColumns_ = buffer_.getInt(20);
+      bytesPerLabel_ = buffer_.getInt(24);
+      measurementsOffset_ = HEADER + 16L * nbCells_;
+      labelsOffset_ = measurementsOffset_ + 8L * nbCells_ * nbColumns_;
+      if (buffer_.capacity() != size(width_, height_, nbCells_, nbColumns_)) {
+         throw new IOException("Truncated label map");
+      }
+   }
+
+   private static long size(int width, int height, int nbCells, int nbColumns) {
+      return HEADER + 16L * nbCells + 8L * nbCells * nbColumns + (long) bytesPerLabel(nbCells) * width * height;
+   }
+
+   private static int bytesPerLabel(int nbCells) {
+      return nbCells <= 0xFFFF ? 2 : 4;
+   }
+
+   /**
+    * @param path path of the file
+    * @return the mapped file
+    * @throws IOException if it can not be mapped or is not a label map
+    */
+   public static LabelMapFile open(String path) throws IOException {
+      try (RandomAccessFile raf = new RandomAccessFile(path, "r"); FileChannel channel = raf.getChannel()) {
+         return new LabelMapFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+      }
+   }
+
+   /**
+    * @param path    path of the file
+    * @param width   width of the image segmented
+    * @param height  height of the image segmented
+    * @param cells   cell number of every pixel (from 1), 0 for the background
+    * @param bounds  min x, min y, max x and max y of each cell
+    * @param columns measurements, one array per column, one value per cell
+    */
+   public static void write(String path, int width, int height, int[] cells, int[][] bounds, double[][] columns) {
+      int nbCells = bounds.length;
+      ByteBuffer buffer = ByteBuffer.allocate((int) size(width, height, nbCells, columns.length))
+            .order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(nbCells)
+            .putInt(columns.length).putInt(bytesPerLabel(nbCells)).putInt(0);
+      for (int[] b : bounds) {
+         buffer.putInt(b[0]).putInt(b[1]).putInt(b[2] - b[0] + 1).putInt(b[3] - b[1] + 1);
+      }
+      for (double[] column : columns) {
+         buffer.asDoubleBuffer().put(column, 0, nbCells);
+         buffer.position(buffer.position() + 8 * nbCells);
+      }
+      if (bytesPerLabel(nbCells) == 2) {
+         for (int cell : cells) {
+            buffer.putShort((short) cell);
+         }
+      } else {
+         buffer.asIntBuffer().put(cells);
+      }
+      buffer.rewind();
+      try {
+         FileUtils.writeAtomically(Paths.get(path), buffer);
+      } catch (IOException e) {
+         IOUtils.printErrorToIJLog(e);
+      }
+   }
+
+   /**
+    * @param path       path of the label map
+    * @param roiZipPath path of the rois of the same segmentation
+    * @return true if the label map exists and the rois were not saved after it (edited in the
+    * RoiManager for instance), so it can be loaded in place of the rois
+    */
+   public static boolean isUpToDate(String path, String roiZipPath) {
+      File labelMap = new File(path);
+      File rois = new File(roiZipPath);
+      return labelMap.exists() && (!rois.exists() || rois.lastModified() <= labelMap.lastModified());
+   }
+
+   public int getWidth() {
+      return width_;
+   }
+
+   public int getHeight() {
+      return height_;
+   }
+
+   public int getNbCells() {
+      return nbCells_;
+   }
+
+   public int getNbColumns() {
+      return nbColumns_;
+   }
+
+   /**
+    * @return cell number at (x, y), 0 for the background and outside of the image
+    */
+   public int getCell(int x, int y) {
+      if (x < 0 || y < 0 || x >= width_ || y >= height_) {
+         return 0;
+      }
+      long i = (long) y * width_ + x;
+      if (bytesPerLabel_ == 2) {
+         return buffer_.getShort((int) (labelsOffset_ + 2 * i)) & 0xFFFF;
+      }
+      return buffer_.getInt((int) (labelsOffset_ + 4 * i));
+   }
+
+   /**
+    * @param column column of the measurement, from 0
+    * @param cell   cell number, from 1
+    * @return the measurement
+    */
+   public double get(int column, int cell) {
+      return buffer_.getDouble((int) (measurementsOffset_ + 8L * ((long) column * nbCells_ + cell - 1)));
+   }
+
+   /**
+    * @param cell cell number, from 1
+    * @return measurements of the cell, in the order of the columns
+    */
+   public double[] getMeasurements(int cell) {
+      double[] values = new double[nbColumns_];
+      for (int column = 0; column < nbColumns_; column++) {
+         values[column] = get(column, cell);
+      }
+      return values;
+   }
+
+   /**
+    * @param cell cell number, from 1
+    * @return bounding box of the cell
+    */
+   public Rectangle getBounds(int cell) {
+      int offset = HEADER + 16 * (cell - 1);
+      return new Rectangle(buffer_.getInt(offset), buffer_.getInt(offset + 4), buffer_.getInt(offset + 8),
+            buffer_.getInt(offset + 12));
+   }
+
+   /**
+    * @param cell cell number, from 1
+    * @return roi of the cell : its bounding box, masked by the label map
+    */
+   public Roi getRoi(int cell) {
+      return new LabelRoi(this, cell, getBounds(cell));
+   }
+
+   /**
+    * Rectangle roi of a cell, which only contains the pixels of the cell. Its polygon is the
+    * outline of the cell, traced from the label map at the first call (for the export of the
+    * cropped images) : contains and getMask do not need it.
+    */
+   private static class LabelRoi extends Roi {
+      private LabelMapFile labelMap_;
+      private int cell_;
+      // relative to the bounding box
+      private Polygon outline_;
+
+      LabelRoi(LabelMapFile labelMap, int cell, Rectangle bounds) {
+         super(bounds.x, bounds.y, bounds.width, bounds.height);
+         labelMap_ = labelMap;
+         cell_ = cell;
+         setName(String.valueOf(cell));
+      }
+
+      @Override
+      public boolean contains(int x, int y) {
+         return super.contains(x, y) && labelMap_.getCell(x, y) == cell_;
+      }
+
+      @Override
+      public ImageProcessor getMask() {
+         Rectangle bounds = getBounds();
+         byte[] mask = new byte[bounds.width * bounds.height];
+         for (int y = 0; y < bounds.height; y++) {
+            for (int x = 0; x < bounds.width; x++) {
+               if (labelMap_.getCell(bounds.x + x, bounds.y + y) == cell_) {
+                  mask[y * bounds.width + x] = (byte) 255;
+               }
+            }
+         }
+         return new ByteProcessor(bounds.width, bounds.height, mask);
+      }
+
+      private synchronized Polygon getOutline() {
+         if (outline_ == null) {
+            ImageProcessor mask = getMask();
+            byte[] pixels = (byte[]) mask.getPixels();
+            int first = 0;
+            while (first < pixels.length && pixels[first] == 0) {
+               first++;
+            }
+            if (first == pixels.length) {
+               outline_ = new Polygon();
+            } else {
+               // the first pixel of the cell is on its outer edge, like for the particle analyzer
+               Wand wand = new Wand(mask);
+               wand.autoOutline(first % mask.getWidth(), first / mask.getWidth(), 255, 255, Wand.EIGHT_CONNECTED);
+               outline_ = new Polygon(wand.xpoints, wand.ypoints, wand.npoints);
+            }
+         }
+         return outline_;
+      }
+
+      /**
+       * @return outline of the cell in the image, a new polygon at each call
+       */
+      @Override
+      public Polygon getPolygon() {
+         Polygon outline = getOutline();
+         Rectangle bounds = getBounds();
+         Polygon polygon = new Polygon(outline.xpoints, outline.ypoints, outline.npoints);
+         polygon.translate(bounds.x, bounds.y);
+         return polygon;
+      }
+
+      @Override
+      public FloatPolygon getFloatPolygon() {
+         Polygon polygon = getPolygon();
+         float[] xs = new float[polygon.npoints];
+         float[] ys = new float[polygon.npoints];
+         for (int i = 0; i < polygon.npoints; i++) {
+            xs[i] = polygon.xpoints[i];
+            ys[i] = polygon.ypoints[i];
+         }
+         return new FloatPolygon(xs, ys, polygon.npoints);
+      }
+   }
+}
@@ -1,6 +1,8 @@
 package maars.io;
 
 import maars.agents.Cell;
+import maars.cellAnalysis.GeometryContainer;
+import maars.cellAnalysis.SpotSetAnalyzor;
 import maars.utils.FileUtils;
 import util.opencsv.CSVWriter;
 
@@ -8,9 +10,6 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.HashMap;
 
 public class MAARSGeometrySaver {
    private String geometryCSVDir;
@@ -21,35 +20,43 @@ public class MAARSGeometrySaver {
    }
 
    private void saveGeometries(String channel, Cell cell) {
-      HashMap<Integer, HashMap<String, Object>> geosInFrams = cell.getGeometryContainer().getGeosInChannel(channel);
+      GeometryContainer geometries = cell.getGeometryContainer();
+      String[] params = SpotSetAnalyzor.AllGeoParamSet;
+      double[][] series = new double[params.length][];
+      for (int p = 0; p < params.length; p++) {
+         series[p] = geometries.getSeries(channel, p);
+      }
       int cellNb = cell.getCellNumber();
       ArrayList<String[]> outLines = new ArrayList<>();
-      if (geosInFrams.keySet().size() > 0) {
-         int firstFrame = (Integer) geosInFrams.keySet().toArray()[0];
-         ArrayList headerList = new ArrayList(geosInFrams.get(firstFrame).keySet());
-         Collections.sort(headerList);
-         String[] header = new String[headerList.size() + 1];
-         header[0] = "Frame";
-         for (int i = 1; i <= headerList.size(); i++) {
-            header[i] = (String) headerList.get(i - 1);
+      for (int frame = 0; frame < series[0].length; frame++) {
+         // frames not analysed have no line
+         if (!Double.isNaN(series[SpotSetAnalyzor.NB_OF_SPOT_DETECTED][frame])) {
+            String[] geoOfFrame = new String[params.length + 1];
+            geoOfFrame[0] = String.valueOf(frame);
+            for (int p = 0; p < params.length; p++) {
+               double value = series[p][frame];
+               if (Double.isNaN(value)) {
+                  geoOfFrame[p + 1] = "";
+               } else if (p == SpotSetAnalyzor.NB_OF_SPOT_DETECTED) {
+                  geoOfFrame[p + 1] = String.valueOf((int) value);
+               } else {
+                  geoOfFrame[p + 1] = String.valueOf(value);
+               }
+            }
+            outLines.add(geoOfFrame);
          }
+      }
+      if (outLines.size() > 0) {
+         String[] header = new String[params.length + 1];
+         header[0] = "Frame";
+         System.arraycopy(params, 0, header, 1, params.length);
+         outLines.add(0, header);
          FileWriter cellGeoWriter = null;
-         String[] geoOfFrame;
          try {
             cellGeoWriter = new FileWriter(geometryCSVDir + String.valueOf(cellNb) + "_" + channel + ".csv");
          } catch (IOException e) {
             IOUtils.printErrorToIJLog(e);
          }
-         for (int frame : geosInFrams.keySet()) {
-            geoOfFrame = new String[headerList.size() + 1];
-            geoOfFrame[0] = String.valueOf(frame);
-            for (int i = 1; i <= headerList.size(); i++) {
-               geoOfFrame[i] = String.valueOf(geosInFrams.get(frame).get(headerList.get(i - 1)));
-            }
-            outLines.add(geoOfFrame);
-         }
-         outLines.sort(Comparator.comparing(o -> Integer.valueOf(o[0])));
-         outLines.add(0, header);
          assert cellGeoWriter != null;
          CSVWriter writer = new CSVWriter(cellGeoWriter, ',', CSVWriter.NO_QUOTE_CHARACTER);
          writer.writeAll(outLines);
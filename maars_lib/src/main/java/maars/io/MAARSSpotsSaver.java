@@ -14,8 +14,13 @@ public class MAARSSpotsSaver {
    private String spotsXmlDir;
    private SpotsContainer container;
 
-   public MAARSSpotsSaver(String pathToFluoDir) {
+   /**
+    * @param pathToFluoDir folder of the fluo analysis of the position
+    * @param container     spots of the cells of the position
+    */
+   public MAARSSpotsSaver(String pathToFluoDir, SpotsContainer container) {
       spotsXmlDir = pathToFluoDir + File.separator + "spots" + File.separator;
+      this.container = container;
       FileUtils.createFolder(spotsXmlDir);
    }
 
@@ -35,9 +40,10 @@ public class MAARSSpotsSaver {
    }
 
    public void save(Cell cell) {
-      this.container = cell.getSpotContainer();
       for (String channel : this.container.getUsingChannels()) {
-         saveSpots(channel, this.container.getSpots(channel), String.valueOf(cell.getCellNumber()));
+         // TrackMate spots are only created here, for the export
+         saveSpots(channel, this.container.toSpotCollection(channel, cell.getCellNumber()),
+               String.valueOf(cell.getCellNumber()));
       }
    }
 }
@@ -43,6 +43,11 @@ import java.io.*;
  *    +-----> FILTER_MEAN_GREY_VALUE
  *    +-----> FILTER_SOLIDITY
  *    +-----> MAXIMUM_CELL_AREA
+ *    +-----> WEIGHTED_SLICE_SUM
+ *    +-----> SPARSE_Z
+ *    +-----> THRESHOLD_RADIUS
+ *    +-----> CORRELATION_CACHE_SIZE
+ *    +-----> PYRAMID_FACTOR
  *
  * PATH_TO_POSITION_LIST
  *   
@@ -59,6 +64,7 @@ import java.io.*;
  *    +-----> TIME_INTERVAL
  *    +-----> DO_ANALYSIS
  *    +-----> PROJECTED
+ *    +-----> SPOT_DETECTOR
  *    +-----> ANALYSIS_OPTIONS
  *    		|
  *    		+-----> DO_MITOSIS_RATIO
@@ -127,7 +133,20 @@ public class MaarsParameters {
    private static final String BATCH_MODE = "BATCH_MODE";
    private static final String TOLERANCE = "TOLERANCE";
    public static final String FOCUS= "FOCUS";
+   // value of FOCUS to detect the focus slice of each stack
+   public static final String FOCUS_AUTO = "auto";
    public static final String DIRECTION = "DIRECTION";
+   public static final String WEIGHTED_SLICE_SUM = "WEIGHTED_SLICE_SUM";
+   public static final String SPARSE_Z = "SPARSE_Z";
+   // radius in pixels of the local threshold of the correlation image, 0 for a global threshold
+   public static final String THRESHOLD_RADIUS = "THRESHOLD_RADIUS";
+   // number of correlation images cached in the folder of each position, 0 to disable the cache
+   public static final String CORRELATION_CACHE_SIZE = "CORRELATION_CACHE_SIZE";
+   // reduction of the coarse level of the segmentation, 1 to segment at full resolution only
+   public static final String PYRAMID_FACTOR = "PYRAMID_FACTOR";
+   // LoG detector of the spots, MAARS on the boxes of the cells or TRACKMATE on the whole field
+   public static final String SPOT_DETECTOR = "SPOT_DETECTOR";
+   public static final String TRACKMATE_DETECTOR = "TRACKMATE";
    public static final String DEPS_DIR = IJ.getDirectory("plugins") + "MAARS_deps"+ File.separator;
    public static final String DEFAULT_CONFIG_NAME = "maars_config.xml";
    private Document doc;
@@ -406,6 +425,13 @@ public class MaarsParameters {
       root.getChild(FLUO_ANALYSIS_PARAMETERS).getChild(PROJECTED).setText(projected);
    }
 
+   /**
+    * @return whether or not detect spots with TrackMate, as a reference for the detector of MAARS
+    */
+   public boolean useTrackmateDetector() {
+      return TRACKMATE_DETECTOR.equals(root.getChild(FLUO_ANALYSIS_PARAMETERS).getChildText(SPOT_DETECTOR));
+   }
+
    String getBatchMode() {
       return root.getChild(GENERAL_ACQUISITION_PARAMETERS).getChildText(BATCH_MODE);
    }
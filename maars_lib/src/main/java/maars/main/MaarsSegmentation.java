@@ -3,6 +3,9 @@ package maars.main;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.measure.ResultsTable;
+import ij.process.FloatProcessor;
+import maars.segmentPombe.CorrelationAccumulator;
+import maars.segmentPombe.FocusFinder;
 import maars.segmentPombe.SegPombe;
 import maars.segmentPombe.SegPombeParameters;
 import maars.utils.FileUtils;
@@ -23,6 +26,7 @@ public class MaarsSegmentation implements Runnable {
    private SegPombeParameters segPombeParam_;
    private Boolean batchMode = false;
    private Double tolerance = 10.0;
+   private FloatProcessor correlation_;
 
    /**
     * * Constructor :
@@ -32,7 +36,21 @@ public class MaarsSegmentation implements Runnable {
     * @param posNb      position id
     */
    public MaarsSegmentation(MaarsParameters parameters, ImagePlus img, String posNb) {
-      img_ = img;
+      this(parameters, img, null, posNb);
+   }
+
+   /**
+    * Constructor for a correlation image accumulated while the slices were acquired
+    *
+    * @param parameters  : MAARS parameters (see class MaarsParameters)
+    * @param focusImg    focus slice of the stack
+    * @param correlation correlation image (see {@link #newCorrelationAccumulator})
+    * @param posNb       position id
+    */
+   public MaarsSegmentation(MaarsParameters parameters, ImagePlus focusImg, FloatProcessor correlation,
+                            String posNb) {
+      img_ = focusImg;
+      correlation_ = correlation;
       posNb_ = posNb;
       batchMode = Boolean.valueOf(parameters.getBatchMode());
       tolerance = Double.valueOf(parameters.getSegTolerance());
@@ -46,6 +64,63 @@ public class MaarsSegmentation implements Runnable {
       segPombeParam_ = segPombeParam;
    }
 
+   /**
+    * @param parameters : MAARS parameters (see class MaarsParameters)
+    * @param width      width of the slices
+    * @param height     height of the slices
+    * @param nSlices    number of slices of the stack
+    * @return accumulator of the correlation image, with the parameters of the segmentation. The
+    * focus has to be known before the first slice : not usable with {@link MaarsParameters#FOCUS_AUTO}
+    */
+   public static CorrelationAccumulator newCorrelationAccumulator(MaarsParameters parameters, int width, int height,
+                                                                  int nSlices) {
+      String sparseZ = parameters.getSegmentationParameter(MaarsParameters.SPARSE_Z);
+      return new CorrelationAccumulator(width, height, nSlices,
+            Float.parseFloat(parameters.getSegmentationParameter(MaarsParameters.FOCUS)),
+            getSigmaInSlices(parameters),
+            Integer.parseInt(parameters.getSegmentationParameter(MaarsParameters.DIRECTION)),
+            sparseZ == null || Boolean.parseBoolean(sparseZ));
+   }
+
+   /**
+    * @param parameters : MAARS parameters (see class MaarsParameters)
+    * @return true if the focus slice has to be found on each stack
+    */
+   public static boolean isAutoFocus(MaarsParameters parameters) {
+      return MaarsParameters.FOCUS_AUTO.equalsIgnoreCase(parameters.getSegmentationParameter(MaarsParameters.FOCUS));
+   }
+
+   /**
+    * @param parameters : MAARS parameters (see class MaarsParameters)
+    * @return true if the binary image is reviewed by the user in a dialog instead of being split
+    * automatically
+    */
+   public static boolean needsReview(MaarsParameters parameters) {
+      return !Boolean.valueOf(parameters.getBatchMode())
+            || Double.valueOf(parameters.getSegTolerance()) == Integer.MAX_VALUE;
+   }
+
+   private static int getSigmaInSlices(MaarsParameters parameters) {
+      return (int) Math.round(Double.parseDouble(parameters.getSegmentationParameter(MaarsParameters.SIGMA))
+            / Double.parseDouble(parameters.getSegmentationParameter(MaarsParameters.STEP)));
+   }
+
+   /**
+    * Images larger than NEW_MAX_WIDTH_FOR_CHANGE_SCALE x NEW_MAX_HEIGTH_FOR_CHANGE_SCALE used to be
+    * shrunk before the segmentation, they are now segmented coarse to fine at full resolution
+    *
+    * @param parameters : MAARS parameters (see class MaarsParameters)
+    * @param img        image to segment
+    * @return reduction factor of the coarse level
+    */
+   private static int getPyramidFactor(MaarsParameters parameters, ImagePlus img) {
+      String factor = parameters.getSegmentationParameter(MaarsParameters.PYRAMID_FACTOR);
+      int maxWidth = Integer.parseInt(parameters.getSegmentationParameter(MaarsParameters.NEW_MAX_WIDTH_FOR_CHANGE_SCALE));
+      int maxHeight = Integer.parseInt(parameters.getSegmentationParameter(MaarsParameters.NEW_MAX_HEIGTH_FOR_CHANGE_SCALE));
+      return Math.max(factor == null ? 1 : Integer.parseInt(factor),
+            Math.max((img.getWidth() + maxWidth - 1) / maxWidth, (img.getHeight() + maxHeight - 1) / maxHeight));
+   }
+
    public ResultsTable getRoiMeasurements() {
       return this.rt;
    }
@@ -56,7 +131,12 @@ public class MaarsSegmentation implements Runnable {
       IJ.log("Begin segmentation...");
       SegPombe segPombe = new SegPombe(segPombeParam_);
       segPombe.createCorrelationImage();
-      segPombe.convertCorrelationToBinaryImage(batchMode,tolerance);
+      segPombe.convertCorrelationToBinaryImage();
+      if (!batchMode || tolerance == Integer.MAX_VALUE) {
+         segPombe.reviewBinaryImage();
+      } else {
+         segPombe.splitTouchingCells(tolerance);
+      }
       segPombe.analyseAndFilterParticles();
       segPombe.showAndSaveResultsAndCleanUp();
       IJ.log("Segmentation done");
@@ -88,15 +168,14 @@ public class MaarsSegmentation implements Runnable {
       // Calibrate parameters
 
       ImgUtils.checkImgUnitsAndScale(img_, segPombeParam);
-      ImgUtils.changeScale(
-            img_,
-            Integer.parseInt(parameters.getSegmentationParameter(MaarsParameters.NEW_MAX_WIDTH_FOR_CHANGE_SCALE)),
-            Integer.parseInt(parameters.getSegmentationParameter(MaarsParameters.NEW_MAX_HEIGTH_FOR_CHANGE_SCALE)),
-            segPombeParam);
+      if (correlation_ == null) {
+         segPombeParam.setPyramidFactor(getPyramidFactor(parameters, img_));
+      } else {
+         // the correlation image has the size of the acquired slices
+         segPombeParam.setCorrelation(correlation_);
+      }
 
-      segPombeParam.setSigma(
-            (int) Math.round(Double.parseDouble(parameters.getSegmentationParameter(MaarsParameters.SIGMA))
-                  / Double.parseDouble(parameters.getSegmentationParameter(MaarsParameters.STEP))));
+      segPombeParam.setSigma(getSigmaInSlices(parameters));
 
       segPombeParam.setMinParticleSize((int) Math
             .round(Double.parseDouble(parameters.getSegmentationParameter(MaarsParameters.MINIMUM_CELL_AREA))
@@ -114,8 +193,24 @@ public class MaarsSegmentation implements Runnable {
       segPombeParam.setMeanGreyValueThreshold(
             Double.parseDouble(parameters.getSegmentationParameter(MaarsParameters.MEAN_GREY_VALUE)));
 
-      segPombeParam.setFocusSlide(Integer.parseInt(parameters.getSegmentationParameter(MaarsParameters.FOCUS)));
+      if (isAutoFocus(parameters)) {
+         long start = System.currentTimeMillis();
+         segPombeParam.setFocusSlide(FocusFinder.findFocus(segPombeParam.getImageToAnalyze()));
+         IJ.log("Focus slice found : " + segPombeParam.getFocusSlide() + " in "
+               + (System.currentTimeMillis() - start) + " ms");
+      } else {
+         segPombeParam.setFocusSlide(Float.parseFloat(parameters.getSegmentationParameter(MaarsParameters.FOCUS)));
+      }
       segPombeParam.setDirection(Integer.parseInt(parameters.getSegmentationParameter(MaarsParameters.DIRECTION)));
+      // configurations written before this option use the weighted slice sum too
+      String weightedSliceSum = parameters.getSegmentationParameter(MaarsParameters.WEIGHTED_SLICE_SUM);
+      segPombeParam.setWeightedSliceSum(weightedSliceSum == null || Boolean.parseBoolean(weightedSliceSum));
+      String sparseZ = parameters.getSegmentationParameter(MaarsParameters.SPARSE_Z);
+      segPombeParam.setSparseZ(sparseZ == null || Boolean.parseBoolean(sparseZ));
+      String thresholdRadius = parameters.getSegmentationParameter(MaarsParameters.THRESHOLD_RADIUS);
+      segPombeParam.setThresholdRadius(thresholdRadius == null ? 0 : Integer.parseInt(thresholdRadius));
+      String cacheSize = parameters.getSegmentationParameter(MaarsParameters.CORRELATION_CACHE_SIZE);
+      segPombeParam.setCorrelationCacheSize(cacheSize == null ? 0 : Integer.parseInt(cacheSize));
       IJ.log("Done.");
       return segPombeParam;
    }
@@ -1,6 +1,5 @@
 package maars.main;
 
-import ij.IJ;
 import ij.ImagePlus;
 import maars.agents.Cell;
 import maars.agents.DefaultSetOfCells;
@@ -12,8 +11,6 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -23,23 +20,6 @@ import java.util.regex.Pattern;
 public class Maars_Interface {
    public final static String SEGANALYSIS_SUFFIX = "_SegAnalysis" + File.separator;
    public final static String FLUOANALYSIS_SUFFIX = "_FluoAnalysis" + File.separator;
-   /**
-    * @param tasksSet tasks to be terminated
-    */
-   public static void waitAllTaskToFinish(CopyOnWriteArrayList<Map<String, Future>> tasksSet) {
-      for (Map<String, Future> aFutureSet : tasksSet) {
-         for (String channel : aFutureSet.keySet()) {
-            try {
-               aFutureSet.get(channel).get();
-            } catch (InterruptedException | ExecutionException e) {
-               IOUtils.printErrorToIJLog(e);
-            }
-            IJ.showStatus("Terminating analysis...");
-         }
-      }
-      IJ.log("Spot detection finished! Proceed to saving and analysis...");
-   }
-
    public static void copyDeps(){
       FileUtils.createFolder(MaarsParameters.DEPS_DIR);
       FileUtils.copy(MaarsParameters.DEPS_DIR, PythonPipeline.TRACKMATE_LOADER_NAME);
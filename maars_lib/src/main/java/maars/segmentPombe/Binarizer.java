@@ -0,0 +1,197 @@
+package maars.segmentPombe;
+
+/**
+ * Binarization of the correlation image, directly on its float pixels and without any global
+ * state of ImageJ, so that several positions can be binarized at the same time. The pixels
+ * are scaled to 256 grey levels like convertToByteProcessor(true) and thresholded with Otsu.
+ * For unevenly lit fields, the local mean (computed on an integral image) can be subtracted
+ * before Otsu, so that the threshold follows the illumination. The morphology is done in
+ * parallel on tiles.
+ *
+ * @author Tong LI, mail: tongli.bioinfo@gmail.com
+ */
+class Binarizer {
+   static final byte FOREGROUND = (byte) 255;
+   private int width_;
+   private int height_;
+
+   /**
+    * @param width  width of the image
+    * @param height height of the image
+    */
+   Binarizer(int width, int height) {
+      width_ = width;
+      height_ = height;
+   }
+
+   /**
+    * @param pixels correlation image
+    * @param radius radius of the window of the local mean, 0 for a global threshold
+    * @return 255 for the pixels above the threshold, 0 for the others
+    */
+   byte[] threshold(float[] pixels, int radius) {
+      int[] levels = toGreyLevels(pixels);
+      if (radius > 0) {
+         subtractLocalMean(levels, radius);
+      }
+      int[] histogram = new int[256];
+      for (int level : levels) {
+         histogram[level]++;
+      }
+      int threshold = otsu(histogram);
+      byte[] binary = new byte[levels.length];
+      for (int i = 0; i < levels.length; i++) {
+         binary[i] = levels[i] > threshold ? FOREGROUND : 0;
+      }
+      return binary;
+   }
+
+   /**
+    * Remove the illumination of the field : each level becomes its difference with the mean of
+    * the window around it, shifted to 128 and clamped to 0-255.
+    */
+   private void subtractLocalMean(int[] levels, int radius) {
+      long[] integral = integralImage(levels);
+      int w = width_ + 1;
+      CorrelationTiles.run(width_, height_, (x0, y0, tileWidth, tileHeight) -> () -> {
+         for (int y = y0; y < y0 + tileHeight; y++) {
+            int top = Math.max(y - radius, 0);
+            int bottom = Math.min(y + radius + 1, height_);
+            for (int x = x0; x < x0 + tileWidth; x++) {
+               int left = Math.max(x - radius, 0);
+               int right = Math.min(x + radius + 1, width_);
+               long sum = integral[bottom * w + right] - integral[top * w + right]
+                     - integral[bottom * w + left] + integral[top * w + left];
+               int i = y * width_ + x;
+               int level = (int) Math.round(levels[i] - (double) sum / ((bottom - top) * (right - left))) + 128;
+               levels[i] = Math.max(0, Math.min(level, 255));
+            }
+         }
+      });
+   }
+
+   /**
+    * @return pixels scaled between their min and max to 0-255, as convertToByteProcessor(true)
+    */
+   private static int[] toGreyLevels(float[] pixels) {
+      float min = Float.MAX_VALUE;
+      float max = -Float.MAX_VALUE;
+      for (float v : pixels) {
+         min = Math.min(min, v);
+         max = Math.max(max, v);
+      }
+      float scale = max > min ? 255f / (max - min) : 0;
+      int[] levels = new int[pixels.length];
+      for (int i = 0; i < pixels.length; i++) {
+         levels[i] = Math.min((int) ((pixels[i] - min) * scale + 0.5f), 255);
+      }
+      return levels;
+   }
+
+   /**
+    * @return sum of the levels above and on the left of each pixel, (width + 1) * (height + 1)
+    */
+   private long[] integralImage(int[] levels) {
+      int w = width_ + 1;
+      long[] integral = new long[w * (height_ + 1)];
+      for (int y = 0; y < height_; y++) {
+         long rowSum = 0;
+         for (int x = 0; x < width_; x++) {
+            rowSum += levels[y * width_ + x];
+            integral[(y + 1) * w + x + 1] = integral[y * w + x + 1] + rowSum;
+         }
+      }
+      return integral;
+   }
+
+   /**
+    * Otsu method of the AutoThresholder of ImageJ
+    *
+    * @param histogram histogram of 256 grey levels
+    * @return threshold, the foreground is above it
+    */
+   static int otsu(int[] histogram) {
+      double nPixels = 0;
+      for (int count : histogram) {
+         nPixels += count;
+      }
+      double[] cumulated = new double[histogram.length];
+      double[] mean = new double[histogram.length];
+      cumulated[0] = histogram[0] / nPixels;
+      for (int i = 1; i < histogram.length; i++) {
+         cumulated[i] = cumulated[i - 1] + histogram[i] / nPixels;
+         mean[i] = mean[i - 1] + i * histogram[i] / nPixels;
+      }
+      double totalMean = mean[histogram.length - 1];
+      int threshold = 0;
+      double maxVariance = 0;
+      for (int i = 0; i < histogram.length; i++) {
+         double variance = totalMean * cumulated[i] - mean[i];
+         variance *= variance / (cumulated[i] * (1.0 - cumulated[i]));
+         if (maxVariance < variance) {
+            maxVariance = variance;
+            threshold = i;
+         }
+      }
+      return threshold;
+   }
+
+   /**
+    * dilation then erosion of the foreground, 3x3
+    */
+   byte[] close(byte[] binary) {
+      return filter(filter(binary, true), false);
+   }
+
+   /**
+    * 3x3 max (dilate) or min (erode) of the foreground, the edges are replicated like the
+    * filters of ImageJ
+    */
+   private byte[] filter(byte[] binary, boolean dilate) {
+      byte[] result = new byte[binary.length];
+      byte hit = dilate ? FOREGROUND : 0;
+      CorrelationTiles.run(width_, height_, (x0, y0, tileWidth, tileHeight) -> () -> {
+         for (int y = y0; y < y0 + tileHeight; y++) {
+            int top = Math.max(y - 1, 0);
+            int bottom = Math.min(y + 1, height_ - 1);
+            for (int x = x0; x < x0 + tileWidth; x++) {
+               int left = Math.max(x - 1, 0);
+               int right = Math.min(x + 1, width_ - 1);
+               byte value = (byte) (FOREGROUND - hit);
+               for (int ny = top; ny <= bottom && value != hit; ny++) {
+                  for (int nx = left; nx <= right; nx++) {
+                     if (binary[ny * width_ + nx] == hit) {
+                        value = hit;
+                        break;
+                     }
+                  }
+               }
+               result[y * width_ + x] = value;
+            }
+         }
+      });
+      return result;
+   }
+
+   /**
+    * The cells are the minority : invert the image if the foreground is the majority
+    *
+    * @param binary binary image, inverted in place
+    * @return true if inverted
+    */
+   static boolean keepMinorityAsForeground(byte[] binary) {
+      int nForeground = 0;
+      for (byte b : binary) {
+         if (b != 0) {
+            nForeground++;
+         }
+      }
+      if (nForeground <= binary.length / 2) {
+         return false;
+      }
+      for (int i = 0; i < binary.length; i++) {
+         binary[i] = binary[i] == 0 ? FOREGROUND : 0;
+      }
+      return true;
+   }
+}
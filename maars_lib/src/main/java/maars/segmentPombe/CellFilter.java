@@ -1,16 +1,31 @@
 package maars.segmentPombe;
 
+import java.util.function.DoublePredicate;
+
 /**
  * Created by tongli on 27/04/2017.
  */
 public class CellFilter {
    int parameter_;
-   double min_;
-   double max_;
+   DoublePredicate predicate_;
 
+   /**
+    * keep the cells whose measurement is in [min, max]
+    *
+    * @param parameter column of the MeasurementTable
+    * @param min       minimum value
+    * @param max       maximum value
+    */
    public CellFilter(int parameter, double min, double max) {
+      this(parameter, value -> value >= min && value <= max);
+   }
+
+   /**
+    * @param parameter column of the MeasurementTable
+    * @param predicate true for the cells to keep
+    */
+   public CellFilter(int parameter, DoublePredicate predicate) {
       parameter_ = parameter;
-      min_ = min;
-      max_ = max;
+      predicate_ = predicate;
    }
 }
@@ -1,11 +1,15 @@
 package maars.segmentPombe;
 
+import java.util.Arrays;
+
 public class ComputeCorrelation {
    private float[] iz_;
    private float zf;
    private float sigma;
    private int direction;
    private int N_ = 101; // precision parameter
+   // slices weighting less than this ratio of the largest weight are skipped in sparse z mode
+   static final double NEGLIGIBLE_WEIGHT = 1e-3;
    private double h_;
    private int first_ind_;
    private double[] zs_d_ = new double[N_];
@@ -80,4 +84,111 @@ public class ComputeCorrelation {
 
       return sum * h_ / 3.0;
    }
+
+   /**
+    * Samples in the order {@link #integrate(float[])} adds them, samples with a null weight
+    * are left out. Together with {@link #getSummedCoefficients()} it lets a kernel reading
+    * the slices directly reproduce exactly the same sum.
+    *
+    * @return z index read by each summed sample
+    */
+   int[] getSummedSlices() {
+      int[] order = getSummationOrder();
+      int[] slices = new int[order.length];
+      for (int i = 0; i < order.length; i++) {
+         slices[i] = zs_i_[order[i]];
+      }
+      return slices;
+   }
+
+   /**
+    * @return Simpson coefficient (1, 4 or 2) times the ponderation of each summed sample
+    */
+   double[] getSummedCoefficients() {
+      int[] order = getSummationOrder();
+      double[] coefficients = new double[order.length];
+      for (int i = 0; i < order.length; i++) {
+         coefficients[i] = simpsonCoefficient(order[i]) * smooth_ponderation_[order[i]];
+      }
+      return coefficients;
+   }
+
+   /**
+    * @return step size of the integration, the sum has to be multiplied by it then divided by 3
+    */
+   double getStep() {
+      return h_;
+   }
+
+   /**
+    * Fold the whole integral into one weight per slice of the stack : Simpson coefficient,
+    * ponderation and h / 3 of every sample are added to the weight of the slice it reads.
+    * The correlation of a pixel is then the weighted sum of its slices. Only the order of
+    * the additions changes, the result stays within 1e-6 * sum(|weight| * pixel) of
+    * {@link #integrate(float[])}, below the float precision of the correlation image.
+    *
+    * @param nSlices number of slices of the stack
+    * @return weight of each slice, indexed like the stack (0 based)
+    */
+   public double[] getSliceWeights(int nSlices) {
+      double[] weights = new double[nSlices];
+      int[] order = getSummationOrder();
+      for (int index : order) {
+         weights[ComputeImageCorrelation.stackIndex(zs_i_[index])] +=
+               simpsonCoefficient(index) * smooth_ponderation_[index] * h_ / 3.0;
+      }
+      return weights;
+   }
+
+   /**
+    * Sparse z : the ponderation (z - zf) * exp(-(zf - z)^2 / 2 sigma^2) vanishes a few sigmas
+    * away from the focus, whatever the direction. Weights below {@link #NEGLIGIBLE_WEIGHT} times
+    * the largest one are set to 0, so these slices are neither read nor summed. The error is
+    * below NEGLIGIBLE_WEIGHT * sum(|weight| * pixel) per skipped slice.
+    *
+    * @param weights weight of each slice, modified in place
+    * @return number of slices still contributing
+    */
+   static int dropNegligibleWeights(double[] weights) {
+      double max = 0;
+      for (double w : weights) {
+         max = Math.max(max, Math.abs(w));
+      }
+      int contributing = 0;
+      for (int z = 0; z < weights.length; z++) {
+         if (Math.abs(weights[z]) < NEGLIGIBLE_WEIGHT * max) {
+            weights[z] = 0;
+         } else if (weights[z] != 0) {
+            contributing++;
+         }
+      }
+      return contributing;
+   }
+
+   private double simpsonCoefficient(int index) {
+      if (index == first_ind_ || index == N_ - 1) {
+         return 1.0;
+      }
+      return (index - first_ind_) % 2 == 1 ? 4.0 : 2.0;
+   }
+
+   private int[] getSummationOrder() {
+      int[] order = new int[N_];
+      int n = 0;
+      order[n++] = first_ind_;
+      order[n++] = N_ - 1;
+      for (int i = 1; i < N_; i += 2) {
+         order[n++] = first_ind_ + i;
+      }
+      for (int i = 2; i < N_ - 1; i += 2) {
+         order[n++] = first_ind_ + i;
+      }
+      int kept = 0;
+      for (int i = 0; i < n; i++) {
+         if (smooth_ponderation_[order[i]] != 0) {
+            order[kept++] = order[i];
+         }
+      }
+      return Arrays.copyOf(order, kept);
+   }
 }
\ No newline at end of file
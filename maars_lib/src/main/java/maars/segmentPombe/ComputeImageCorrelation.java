@@ -1,49 +1,126 @@
 package maars.segmentPombe;
 
-import ij.ImagePlus;
-import ij.process.FloatProcessor;
+import ij.ImageStack;
 
-import java.util.concurrent.Callable;
+import java.util.Arrays;
 
 /**
+ * Compute the correlation of a rectangle of the stack. The slices are read
+ * directly from their primitive arrays, one row of every sample at a time,
+ * and the result is written straight into the correlation image buffer.
+ *
  * @author Tong LI, mail: tongli.bioinfo@gmail.com
  * @version Nov 13, 2015
  */
-class ComputeImageCorrelation implements Callable<FloatProcessor> {
-   private ImagePlus img;
-   private float zFocus;
-   private ComputeCorrelation computeCorrelationImage_;
-
-   ComputeImageCorrelation(ImagePlus img, float zFocus, float sigma, int direction) {
-      this.img = img;
-      this.zFocus = zFocus;
-      // compute correlation value
-      computeCorrelationImage_ = new ComputeCorrelation(zFocus, sigma, direction);
-      computeCorrelationImage_.preCalculateParameters(0, img.getNSlices() - 1);
+class ComputeImageCorrelation implements Runnable {
+   private Object[] slices_;
+   private int stackWidth_;
+   private float[] correlation_;
+   private int x0_;
+   private int y0_;
+   private int width_;
+   private int height_;
+   private int[] sampleSlices_;
+   private double[] coefficients_;
+   private double step_;
+
+   /**
+    * @param slices             pixel arrays of the stack (see {@link #readSlices(ImageStack, double[])})
+    * @param stackWidth         width of the stack
+    * @param computeCorrelation integration parameters, already pre-calculated
+    * @param correlation        pixels of the correlation image, same size as the stack
+    * @param x0                 x of the upper left corner of the rectangle
+    * @param y0                 y of the upper left corner of the rectangle
+    * @param width              width of the rectangle
+    * @param height             height of the rectangle
+    */
+   ComputeImageCorrelation(Object[] slices, int stackWidth, ComputeCorrelation computeCorrelation,
+                           float[] correlation, int x0, int y0, int width, int height) {
+      slices_ = slices;
+      stackWidth_ = stackWidth;
+      correlation_ = correlation;
+      x0_ = x0;
+      y0_ = y0;
+      width_ = width;
+      height_ = height;
+      sampleSlices_ = computeCorrelation.getSummedSlices();
+      coefficients_ = computeCorrelation.getSummedCoefficients();
+      step_ = computeCorrelation.getStep();
+   }
+
+   /**
+    * Get the pixel arrays of the slices of the stack, no copy is done for a
+    * stack held in memory. For a virtual stack only the slices read are loaded
+    * from disk.
+    *
+    * @param stack   stack to analyse
+    * @param weights weight of each slice, slices of weight 0 are not read (left null).
+    *                null to read them all
+    * @return array of short[], byte[] or float[]
+    */
+   static Object[] readSlices(ImageStack stack, double[] weights) {
+      Object[] slices = new Object[stack.getSize()];
+      for (int i = 0; i < slices.length; i++) {
+         if (weights == null || weights[i] != 0) {
+            slices[i] = stack.getPixels(i + 1);
+         }
+      }
+      return slices;
+   }
+
+   /**
+    * ImagePlus.setZ() clamps 0 to the first slice: the integration has always
+    * read slice 1 for z = 0 and z = 1, and slice z for the others.
+    *
+    * @param z index of the integration
+    * @return index in the slice array
+    */
+   static int stackIndex(int z) {
+      return Math.max(z - 1, 0);
    }
 
    /**
-    * calculate correlation score for one given img img here should normally be
-    * a sub image of original BF image.
+    * calculate correlation score for every pixel of the rectangle
     */
    @Override
-   public FloatProcessor call() throws Exception {
-      FloatProcessor correlationImage = new FloatProcessor(img.getWidth(), img.getHeight());
-      for (int x = 0; x < img.getWidth(); x++) {
-         for (int y = 0; y < img.getHeight(); y++) {
-            // initiate variable to compute correlation value
-            float zf = zFocus;
-            float[] iz = new float[img.getNSlices()];
-            for (int z = 0; z < img.getNSlices(); z++) {
-               img.setZ(z);
-               iz[z] = img.getPixel(x, y)[0];
-               // the first element returned by the getPixel function is
-               // the grayscale values
-            }
-            double correlationPixelValue = computeCorrelationImage_.integrate(iz);
-            correlationImage.putPixelValue(x, y, correlationPixelValue);
+   public void run() {
+      double[] sum = new double[width_];
+      for (int y = y0_; y < y0_ + height_; y++) {
+         Arrays.fill(sum, 0);
+         int offset = y * stackWidth_ + x0_;
+         for (int s = 0; s < sampleSlices_.length; s++) {
+            accumulate(slices_[stackIndex(sampleSlices_[s])], offset, coefficients_[s], sum);
+         }
+         for (int x = 0; x < width_; x++) {
+            correlation_[offset + x] = (float) (sum[x] * step_ / 3.0);
+         }
+      }
+   }
+
+   /**
+    * add coefficient * pixels to sum, on the row starting at offset
+    *
+    * @param pixels      short[], byte[] or float[] pixels of a slice
+    * @param offset      index of the first pixel
+    * @param coefficient weight of the slice
+    * @param sum         row accumulator
+    */
+   static void accumulate(Object pixels, int offset, double coefficient, double[] sum) {
+      if (pixels instanceof short[]) {
+         short[] p = (short[]) pixels;
+         for (int x = 0; x < sum.length; x++) {
+            sum[x] += coefficient * (p[offset + x] & 0xffff);
+         }
+      } else if (pixels instanceof byte[]) {
+         byte[] p = (byte[]) pixels;
+         for (int x = 0; x < sum.length; x++) {
+            sum[x] += coefficient * (p[offset + x] & 0xff);
+         }
+      } else {
+         float[] p = (float[]) pixels;
+         for (int x = 0; x < sum.length; x++) {
+            sum[x] += coefficient * p[offset + x];
          }
       }
-      return correlationImage;
    }
 }
@@ -0,0 +1,110 @@
+package maars.segmentPombe;
+
+import ij.process.FloatProcessor;
+
+/**
+ * Weighted slice sum computed while the slices are acquired : each slice is added to the
+ * correlation buffer as soon as it arrives, then dropped. Once the last slice is added the
+ * correlation image is ready, only the thresholding and the particle analysis remain
+ * (see {@link SegPombeParameters#setCorrelation(FloatProcessor)}).
+ * <p>
+ * Slices are summed in double and in z order, like {@link WeightedSliceSum}, so the result
+ * is the same as the correlation of the whole stack.
+ *
+ * @author Tong LI, mail: tongli.bioinfo@gmail.com
+ */
+public class CorrelationAccumulator {
+   private int width_;
+   private int height_;
+   private int focusIndex_;
+   private double[] weights_;
+   private double[] sum_;
+   private int added_ = 0;
+
+   /**
+    * @param width     width of the slices
+    * @param height    height of the slices
+    * @param nSlices   number of slices of the stack
+    * @param zFocus    focus slice (1 based)
+    * @param sigma     typical cell size, in slices
+    * @param direction -1 or 1
+    * @param sparseZ   skip the slices of negligible weight
+    */
+   public CorrelationAccumulator(int width, int height, int nSlices, float zFocus, float sigma, int direction,
+                                 boolean sparseZ) {
+      width_ = width;
+      height_ = height;
+      focusIndex_ = Math.min(Math.max(Math.round(zFocus), 1), nSlices) - 1;
+      ComputeCorrelation computeCorrelation = new ComputeCorrelation(zFocus, sigma, direction);
+      computeCorrelation.preCalculateParameters(0, nSlices - 1);
+      weights_ = computeCorrelation.getSliceWeights(nSlices);
+      if (sparseZ) {
+         ComputeCorrelation.dropNegligibleWeights(weights_);
+      }
+      sum_ = new double[width * height];
+   }
+
+   /**
+    * Add the contribution of a slice, slices have to be added in z order
+    *
+    * @param z      index of the slice in the stack (0 based)
+    * @param pixels short[], byte[] or float[] pixels of the slice
+    */
+   public void add(int z, Object pixels) {
+      double weight = weights_[z];
+      added_++;
+      if (weight == 0) {
+         return;
+      }
+      CorrelationTiles.run(width_, height_, (x0, y0, width, height) -> () -> {
+         for (int y = y0; y < y0 + height; y++) {
+            accumulate(pixels, y * width_ + x0, width, weight);
+         }
+      });
+   }
+
+   private void accumulate(Object pixels, int offset, int length, double weight) {
+      if (pixels instanceof short[]) {
+         short[] p = (short[]) pixels;
+         for (int i = offset; i < offset + length; i++) {
+            sum_[i] += weight * (p[i] & 0xffff);
+         }
+      } else if (pixels instanceof byte[]) {
+         byte[] p = (byte[]) pixels;
+         for (int i = offset; i < offset + length; i++) {
+            sum_[i] += weight * (p[i] & 0xff);
+         }
+      } else {
+         float[] p = (float[]) pixels;
+         for (int i = offset; i < offset + length; i++) {
+            sum_[i] += weight * p[i];
+         }
+      }
+   }
+
+   /**
+    * @param z index of the slice in the stack (0 based)
+    * @return true if it is the slice used as focus image
+    */
+   public boolean isFocus(int z) {
+      return z == focusIndex_;
+   }
+
+   /**
+    * @return true once every slice of the stack was added
+    */
+   public boolean isComplete() {
+      return added_ == weights_.length;
+   }
+
+   /**
+    * @return correlation image of the slices added
+    */
+   public FloatProcessor getCorrelation() {
+      float[] correlation = new float[sum_.length];
+      for (int i = 0; i < correlation.length; i++) {
+         correlation[i] = (float) sum_[i];
+      }
+      return new FloatProcessor(width_, height_, correlation);
+   }
+}
@@ -0,0 +1,150 @@
+package maars.segmentPombe;
+
+import ij.process.FloatProcessor;
+import maars.io.IOUtils;
+import maars.utils.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * Cache of correlation images on disk, in the folder of the segmentation. An image is keyed by
+ * a hash of the pixels of the slices it is computed from and of the parameters of the
+ * integration, so changing only the filters of the segmentation reuses it. The files are
+ * memory-mapped for reading, and written to a temporary file then moved in place. The least
+ * recently used ones are deleted beyond the maximum number of entries.
+ *
+ * @author Tong LI, mail: tongli.bioinfo@gmail.com
+ */
+class CorrelationCache {
+   private static final String SUFFIX = ".corr";
+   // width, height
+   private static final int HEADER = 8;
+   private File dir_;
+   private int maxEntries_;
+
+   /**
+    * @param dir        folder of the cache, created if needed
+    * @param maxEntries maximum number of correlation images kept
+    */
+   CorrelationCache(File dir, int maxEntries) {
+      dir_ = dir;
+      maxEntries_ = maxEntries;
+   }
+
+   /**
+    * @param slices pixel arrays of the slices used, null for the others (see ComputeImageCorrelation.readSlices)
+    * @param params parameters of the integration
+    * @return key of the correlation image
+    */
+   static String key(Object[] slices, double... params) {
+      long[] hashes = IntStream.range(0, slices.length).parallel().mapToLong(z -> hash(slices[z])).toArray();
+      long hash = 0xcbf29ce484222325L;
+      for (long h : hashes) {
+         hash = mix(hash, h);
+      }
+      for (double p : params) {
+         hash = mix(hash, Double.doubleToLongBits(p));
+      }
+      return String.format("%016x", hash);
+   }
+
+   /**
+    * FNV-1a of the pixels, 0 for a slice not used
+    */
+   private static long hash(Object pixels) {
+      long hash = 0xcbf29ce484222325L;
+      if (pixels instanceof short[]) {
+         for (short v : (short[]) pixels) {
+            hash = (hash ^ v) * 0x100000001b3L;
+         }
+      } else if (pixels instanceof byte[]) {
+         for (byte v : (byte[]) pixels) {
+            hash = (hash ^ v) * 0x100000001b3L;
+         }
+      } else if (pixels instanceof float[]) {
+         for (float v : (float[]) pixels) {
+            hash = (hash ^ Float.floatToIntBits(v)) * 0x100000001b3L;
+         }
+      } else {
+         return 0;
+      }
+      return hash;
+   }
+
+   private static long mix(long hash, long value) {
+      return (hash ^ value) * 0x100000001b3L + (value >>> 29);
+   }
+
+   /**
+    * @param key key of the correlation image
+    * @return the cached correlation image, null if not there
+    */
+   FloatProcessor get(String key) {
+      File file = new File(dir_, key + SUFFIX);
+      if (!file.exists()) {
+         return null;
+      }
+      try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+         MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+         buffer.order(ByteOrder.LITTLE_ENDIAN);
+         int width = buffer.getInt();
+         int height = buffer.getInt();
+         if (channel.size() != HEADER + 4L * width * height) {
+            return null;
+         }
+         float[] pixels = new float[width * height];
+         buffer.asFloatBuffer().get(pixels);
+         file.setLastModified(System.currentTimeMillis());
+         return new FloatProcessor(width, height, pixels);
+      } catch (IOException e) {
+         IOUtils.printErrorToIJLog(e);
+         return null;
+      }
+   }
+
+   /**
+    * Save a correlation image, then delete the least recently used ones if there are too many
+    *
+    * @param key         key of the correlation image
+    * @param correlation correlation image
+    */
+   void put(String key, FloatProcessor correlation) {
+      if (!dir_.exists() && !dir_.mkdirs()) {
+         return;
+      }
+      int width = correlation.getWidth();
+      int height = correlation.getHeight();
+      ByteBuffer buffer = ByteBuffer.allocate(HEADER + 4 * width * height).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(width);
+      buffer.putInt(height);
+      buffer.asFloatBuffer().put((float[]) correlation.getPixels());
+      buffer.rewind();
+      try {
+         FileUtils.writeAtomically(new File(dir_, key + SUFFIX).toPath(), buffer);
+      } catch (IOException e) {
+         IOUtils.printErrorToIJLog(e);
+         return;
+      }
+      evict();
+   }
+
+   private void evict() {
+      File[] entries = dir_.listFiles((dir, name) -> name.endsWith(SUFFIX));
+      if (entries == null || entries.length <= maxEntries_) {
+         return;
+      }
+      Arrays.sort(entries, Comparator.comparingLong(File::lastModified));
+      for (int i = 0; i < entries.length - maxEntries_; i++) {
+         entries[i].delete();
+      }
+   }
+}
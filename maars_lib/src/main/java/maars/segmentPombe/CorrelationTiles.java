@@ -0,0 +1,74 @@
+package maars.segmentPombe;
+
+import maars.utils.PipelineExecutor;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork/join scheduler of the correlation image : the image is split in halves until the
+ * tiles are small enough to keep the rows of every slice they read in cache. A tile is only
+ * a rectangle of the original stack, the kernel reads the slice arrays in place and writes
+ * into the shared correlation buffer. The tiles run in the pool of the pipeline, idle workers
+ * steal the remaining ones, so the load stays balanced when some cores are busy with something
+ * else.
+ *
+ * @author Tong LI, mail: tongli.bioinfo@gmail.com
+ */
+class CorrelationTiles extends RecursiveAction {
+   // 256 pixels of 30 16-bit slices is 15KB per row
+   static final int TILE_WIDTH = 256;
+   static final int TILE_HEIGHT = 32;
+   private Kernel kernel_;
+   private int x0_;
+   private int y0_;
+   private int width_;
+   private int height_;
+
+   /**
+    * Kernel computing the correlation of a tile
+    */
+   interface Kernel {
+      Runnable newTask(int x0, int y0, int width, int height);
+   }
+
+   private CorrelationTiles(Kernel kernel, int x0, int y0, int width, int height) {
+      kernel_ = kernel;
+      x0_ = x0;
+      y0_ = y0;
+      width_ = width;
+      height_ = height;
+   }
+
+   /**
+    * Compute the whole image and wait for the end, exceptions of the kernel are rethrown
+    *
+    * @param width  width of the image
+    * @param height height of the image
+    * @param kernel kernel to run on every tile
+    */
+   static void run(int width, int height, Kernel kernel) {
+      PipelineExecutor.getPool().invoke(new CorrelationTiles(kernel, 0, 0, width, height));
+   }
+
+   /**
+    * @return number of threads of the scheduler
+    */
+   static int getParallelism() {
+      return PipelineExecutor.getPool().getParallelism();
+   }
+
+   @Override
+   protected void compute() {
+      if (width_ <= TILE_WIDTH && height_ <= TILE_HEIGHT) {
+         kernel_.newTask(x0_, y0_, width_, height_).run();
+      } else if (width_ / TILE_WIDTH >= height_ / TILE_HEIGHT) {
+         int half = width_ / 2;
+         invokeAll(new CorrelationTiles(kernel_, x0_, y0_, half, height_),
+               new CorrelationTiles(kernel_, x0_ + half, y0_, width_ - half, height_));
+      } else {
+         int half = height_ / 2;
+         invokeAll(new CorrelationTiles(kernel_, x0_, y0_, width_, half),
+               new CorrelationTiles(kernel_, x0_, y0_ + half, width_, height_ - half));
+      }
+   }
+}
@@ -0,0 +1,134 @@
+package maars.segmentPombe;
+
+import ij.ImagePlus;
+
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Find the focus slice of a bright field stack. The sharpness of each slice is measured by
+ * its normalized variance (variance / mean), computed on tiles in parallel. In bright field
+ * the cells are almost transparent at focus : the contrast peaks on both sides of it, with
+ * opposite signs, which is what the correlation integrates. The focus is then the least
+ * contrasted slice between the two peaks, or the sharpest slice if there is only one peak.
+ * It is refined at sub-slice precision with a parabola through its neighbours.
+ *
+ * @author Tong LI, mail: tongli.bioinfo@gmail.com
+ */
+public class FocusFinder {
+   // two peaks are on both sides of the focus if the sharpness drops below this ratio between them
+   private static final double VALLEY = 0.9;
+
+   private FocusFinder() {
+   }
+
+   /**
+    * @param img bright field stack
+    * @return focus slice, 1 based like the FOCUS parameter
+    */
+   public static float findFocus(ImagePlus img) {
+      return findFocus(getSharpness(img));
+   }
+
+   /**
+    * @param sharpness sharpness of each slice
+    * @return focus slice, 1 based
+    */
+   static float findFocus(double[] sharpness) {
+      int first = 0;
+      for (int z = 1; z < sharpness.length; z++) {
+         if (sharpness[z] > sharpness[first]) {
+            first = z;
+         }
+      }
+      int second = -1;
+      for (int z = 0; z < sharpness.length; z++) {
+         if (Math.abs(z - first) > 1 && isLocalMaximum(sharpness, z)
+               && (second < 0 || sharpness[z] > sharpness[second])
+               && sharpness[lowest(sharpness, first, z)] < VALLEY * sharpness[z]) {
+            second = z;
+         }
+      }
+      int focus = second < 0 ? first : lowest(sharpness, first, second);
+      return (float) (focus + refine(sharpness, focus) + 1);
+   }
+
+   /**
+    * @return least contrasted slice strictly between a and b
+    */
+   private static int lowest(double[] values, int a, int b) {
+      int lowest = Math.min(a, b) + 1;
+      for (int z = lowest; z < Math.max(a, b); z++) {
+         if (values[z] < values[lowest]) {
+            lowest = z;
+         }
+      }
+      return lowest;
+   }
+
+   /**
+    * @param img stack
+    * @return normalized variance of each slice
+    */
+   static double[] getSharpness(ImagePlus img) {
+      Object[] slices = ComputeImageCorrelation.readSlices(img.getStack(), null);
+      int width = img.getWidth();
+      DoubleAdder[] sums = new DoubleAdder[slices.length];
+      DoubleAdder[] squares = new DoubleAdder[slices.length];
+      for (int z = 0; z < slices.length; z++) {
+         sums[z] = new DoubleAdder();
+         squares[z] = new DoubleAdder();
+      }
+      CorrelationTiles.run(width, img.getHeight(), (x0, y0, tileWidth, tileHeight) -> () -> {
+         for (int z = 0; z < slices.length; z++) {
+            double sum = 0;
+            double square = 0;
+            for (int y = y0; y < y0 + tileHeight; y++) {
+               int offset = y * width + x0;
+               for (int x = offset; x < offset + tileWidth; x++) {
+                  double v = getValue(slices[z], x);
+                  sum += v;
+                  square += v * v;
+               }
+            }
+            sums[z].add(sum);
+            squares[z].add(square);
+         }
+      });
+      double nPixels = (double) width * img.getHeight();
+      double[] sharpness = new double[slices.length];
+      for (int z = 0; z < slices.length; z++) {
+         double mean = sums[z].sum() / nPixels;
+         double variance = squares[z].sum() / nPixels - mean * mean;
+         sharpness[z] = mean == 0 ? 0 : variance / mean;
+      }
+      return sharpness;
+   }
+
+   private static double getValue(Object pixels, int index) {
+      if (pixels instanceof short[]) {
+         return ((short[]) pixels)[index] & 0xffff;
+      } else if (pixels instanceof byte[]) {
+         return ((byte[]) pixels)[index] & 0xff;
+      }
+      return ((float[]) pixels)[index];
+   }
+
+   private static boolean isLocalMaximum(double[] values, int z) {
+      return (z == 0 || values[z] >= values[z - 1]) && (z == values.length - 1 || values[z] >= values[z + 1]);
+   }
+
+   /**
+    * @return offset in [-0.5, 0.5] of the extremum of the parabola through z - 1, z and z + 1
+    */
+   private static double refine(double[] values, int z) {
+      if (z == 0 || z == values.length - 1) {
+         return 0;
+      }
+      double curvature = values[z - 1] - 2 * values[z] + values[z + 1];
+      if (curvature == 0) {
+         return 0;
+      }
+      double offset = 0.5 * (values[z - 1] - values[z + 1]) / curvature;
+      return Math.max(-0.5, Math.min(0.5, offset));
+   }
+}
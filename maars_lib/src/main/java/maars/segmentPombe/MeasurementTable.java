@@ -0,0 +1,138 @@
+package maars.segmentPombe;
+
+import ij.gui.Roi;
+import ij.measure.ResultsTable;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measurements of the cells of a segmentation, one primitive column per measurement and one
+ * row per label. The columns are in the order of Results.csv.
+ *
+ * @author Tong LI, mail: tongli.bioinfo@gmail.com
+ */
+public class MeasurementTable {
+   public static final int AREA = 0, MEAN = 1, STD_DEV = 2, MIN = 3, MAX = 4, X_CENTROID = 5, Y_CENTROID = 6,
+         PERIMETER = 7, MAJOR = 8, MINOR = 9, ANGLE = 10, CIRCULARITY = 11, ASPECT_RATIO = 12, ROUNDNESS = 13,
+         SOLIDITY = 14;
+   public static final int NB_COLUMNS = 15;
+   // column of ResultsTable corresponding to each column
+   static final int[] RESULTS_TABLE_COLUMNS = {ResultsTable.AREA, ResultsTable.MEAN, ResultsTable.STD_DEV,
+         ResultsTable.MIN, ResultsTable.MAX, ResultsTable.X_CENTROID, ResultsTable.Y_CENTROID,
+         ResultsTable.PERIMETER, ResultsTable.MAJOR, ResultsTable.MINOR, ResultsTable.ANGLE,
+         ResultsTable.CIRCULARITY, ResultsTable.ASPECT_RATIO, ResultsTable.ROUNDNESS, ResultsTable.SOLIDITY};
+   private int[] labels_;
+   private double[][] columns_;
+   private Roi[] rois_;
+
+   /**
+    * @param labels label of each row
+    */
+   MeasurementTable(int[] labels) {
+      labels_ = labels;
+      columns_ = new double[NB_COLUMNS][labels.length];
+      rois_ = new Roi[labels.length];
+   }
+
+   void set(int column, int row, double value) {
+      columns_[column][row] = value;
+   }
+
+   void setRoi(int row, Roi roi) {
+      rois_[row] = roi;
+   }
+
+   /**
+    * @return number of rows
+    */
+   public int size() {
+      return labels_.length;
+   }
+
+   public int getLabel(int row) {
+      return labels_[row];
+   }
+
+   public double get(int column, int row) {
+      return columns_[column][row];
+   }
+
+   /**
+    * @param column index of the column
+    * @return the column itself, not a copy
+    */
+   public double[] getColumn(int column) {
+      return columns_[column];
+   }
+
+   /**
+    * @param row index of the row
+    * @return outline of the cell
+    */
+   public Roi getRoi(int row) {
+      return rois_[row];
+   }
+
+   /**
+    * @return outlines of the cells, in the order of the rows
+    */
+   public Roi[] getRois() {
+      return rois_.clone();
+   }
+
+   /**
+    * Apply all the filters at once, one column after the other.
+    *
+    * @param filters filters to apply
+    * @return a new table with the rows kept by every filter, in the same order
+    */
+   public MeasurementTable filter(List<CellFilter> filters) {
+      boolean[] keep = new boolean[size()];
+      Arrays.fill(keep, true);
+      for (CellFilter filter : filters) {
+         double[] column = columns_[filter.parameter_];
+         for (int row = 0; row < keep.length; row++) {
+            keep[row] &= filter.predicate_.test(column[row]);
+         }
+      }
+      int size = 0;
+      for (boolean k : keep) {
+         if (k) {
+            size++;
+         }
+      }
+      int[] labels = new int[size];
+      int[] rows = new int[size];
+      for (int row = 0, i = 0; row < keep.length; row++) {
+         if (keep[row]) {
+            labels[i] = labels_[row];
+            rows[i++] = row;
+         }
+      }
+      MeasurementTable filtered = new MeasurementTable(labels);
+      for (int column = 0; column < NB_COLUMNS; column++) {
+         for (int i = 0; i < size; i++) {
+            filtered.columns_[column][i] = columns_[column][rows[i]];
+         }
+      }
+      for (int i = 0; i < size; i++) {
+         filtered.rois_[i] = rois_[rows[i]];
+      }
+      return filtered;
+   }
+
+   /**
+    * @return the table with the headings of ImageJ, to be saved as Results.csv
+    */
+   public ResultsTable toResultsTable() {
+      ResultsTable rt = new ResultsTable();
+      for (int row = 0; row < size(); row++) {
+         rt.incrementCounter();
+         for (int column = 0; column < NB_COLUMNS; column++) {
+            rt.addValue(RESULTS_TABLE_COLUMNS[column], columns_[column][row]);
+         }
+      }
+      return rt;
+   }
+}
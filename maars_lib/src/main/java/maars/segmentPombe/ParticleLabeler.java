@@ -0,0 +1,468 @@
+package maars.segmentPombe;
+
+import ij.gui.PolygonRoi;
+import ij.gui.Roi;
+import maars.utils.PipelineExecutor;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Label the particles (8-connected) of a binary image and measure them, in place of the
+ * ParticleAnalyzer. The tiles of the image are labelled in parallel with a union-find whose
+ * root is always the first pixel of the particle, the unions across the borders of the tiles
+ * are done afterwards. Labels are then numbered in the order the ParticleAnalyzer finds the
+ * particles (top to bottom, left to right), and every kept particle is measured in parallel
+ * inside its bounding box : area, grey values, centroid, traced perimeter, ellipse and
+ * shape descriptors, computed like ImageJ does. Holes are not part of the particle.
+ *
+ * @author Tong LI, mail: tongli.bioinfo@gmail.com
+ */
+class ParticleLabeler {
+   private static final int MIN_X = 0, MIN_Y = 1, MAX_X = 2, MAX_Y = 3;
+   private int width_;
+   private int height_;
+   private int[] labels_;
+   private int nbLabels_;
+   private int[] counts_;
+   private int[] starts_;
+   private int[][] bounds_;
+
+   /**
+    * @param width  width of the image
+    * @param height height of the image
+    */
+   ParticleLabeler(int width, int height) {
+      width_ = width;
+      height_ = height;
+   }
+
+   /**
+    * @param binary        binary image, particles are the pixels different from 0
+    * @param grey          image on which grey values are measured, same size
+    * @param minSize       minimum area of particle, in pixels
+    * @param maxSize       maximum area of particle, in pixels
+    * @param excludeEdges  exclude the particles touching the edges of the image, like EXCLUDE_EDGE_PARTICLES
+    * @return measurements of the particles kept, by label
+    */
+   MeasurementTable analyze(byte[] binary, float[] grey, double minSize, double maxSize, boolean excludeEdges) {
+      label(binary);
+      int[] kept = new int[nbLabels_];
+      int nbKept = 0;
+      for (int label = 1; label <= nbLabels_; label++) {
+         int[] b = bounds_[label];
+         boolean onEdge = b[MIN_X] == 0 || b[MIN_Y] == 0 || b[MAX_X] == width_ - 1 || b[MAX_Y] == height_ - 1;
+         if (counts_[label] >= minSize && counts_[label] <= maxSize && !(excludeEdges && onEdge)) {
+            kept[nbKept++] = label;
+         }
+      }
+      MeasurementTable table = new MeasurementTable(Arrays.copyOf(kept, nbKept));
+      PipelineExecutor.forEach(0, table.size(), row -> measure(table, row, grey));
+      return table;
+   }
+
+   /**
+    * @return label of every pixel, 0 for the background. Labels of the particles which are
+    * not kept are there too.
+    */
+   int[] getLabels() {
+      return labels_;
+   }
+
+   /**
+    * @param label label of a particle, from 1 to getNbLabels()
+    * @return min x, min y, max x and max y of the particle
+    */
+   int[] getBounds(int label) {
+      return bounds_[label].clone();
+   }
+
+   /**
+    * @return number of particles, kept or not
+    */
+   int getNbLabels() {
+      return nbLabels_;
+   }
+
+   /**
+    * Label the particles only, without measuring them
+    *
+    * @param binary binary image, particles are the pixels different from 0
+    */
+   void label(byte[] binary) {
+      int[] parent = new int[width_ * height_];
+      ConcurrentLinkedQueue<int[]> tiles = new ConcurrentLinkedQueue<>();
+      CorrelationTiles.run(width_, height_, (x0, y0, width, height) -> () -> {
+         labelTile(binary, parent, x0, y0, width, height);
+         tiles.add(new int[]{x0, y0, width, height});
+      });
+      for (int[] tile : tiles) {
+         mergeBorders(parent, tile[0], tile[1], tile[2], tile[3]);
+      }
+      CorrelationTiles.run(width_, height_, (x0, y0, width, height) -> () -> {
+         for (int y = y0; y < y0 + height; y++) {
+            for (int i = y * width_ + x0; i < y * width_ + x0 + width; i++) {
+               if (parent[i] >= 0) {
+                  parent[i] = find(parent, i);
+               }
+            }
+         }
+      });
+      // roots come first in raster order, so labels are numbered like the ParticleAnalyzer does
+      labels_ = new int[width_ * height_];
+      nbLabels_ = 0;
+      counts_ = new int[64];
+      starts_ = new int[64];
+      bounds_ = new int[64][];
+      for (int y = 0; y < height_; y++) {
+         for (int x = 0, i = y * width_; x < width_; x++, i++) {
+            int root = parent[i];
+            if (root < 0) {
+               continue;
+            }
+            int label;
+            if (root == i) {
+               label = newLabel(i, x, y);
+            } else {
+               label = labels_[root];
+            }
+            labels_[i] = label;
+            counts_[label]++;
+            int[] b = bounds_[label];
+            b[MIN_X] = Math.min(b[MIN_X], x);
+            b[MAX_X] = Math.max(b[MAX_X], x);
+            b[MAX_Y] = y;
+         }
+      }
+   }
+
+   private int newLabel(int start, int x, int y) {
+      nbLabels_++;
+      if (nbLabels_ == counts_.length) {
+         counts_ = Arrays.copyOf(counts_, 2 * nbLabels_);
+         starts_ = Arrays.copyOf(starts_, 2 * nbLabels_);
+         bounds_ = Arrays.copyOf(bounds_, 2 * nbLabels_);
+      }
+      starts_[nbLabels_] = start;
+      bounds_[nbLabels_] = new int[]{x, y, x, y};
+      return nbLabels_;
+   }
+
+   /**
+    * union-find of the pixels of a tile, with their neighbours already visited inside the tile
+    */
+   private void labelTile(byte[] binary, int[] parent, int x0, int y0, int width, int height) {
+      for (int y = y0; y < y0 + height; y++) {
+         for (int x = x0, i = y * width_ + x0; x < x0 + width; x++, i++) {
+            if (binary[i] == 0) {
+               parent[i] = -1;
+               continue;
+            }
+            parent[i] = i;
+            if (x > x0 && parent[i - 1] >= 0) {
+               union(parent, i, i - 1);
+            }
+            if (y > y0) {
+               int up = i - width_;
+               if (x > x0 && parent[up - 1] >= 0) {
+                  union(parent, i, up - 1);
+               }
+               if (parent[up] >= 0) {
+                  union(parent, i, up);
+               }
+               if (x < x0 + width - 1 && parent[up + 1] >= 0) {
+                  union(parent, i, up + 1);
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * union of the pixels on the border of a tile with their neighbours outside of it
+    */
+   private void mergeBorders(int[] parent, int x0, int y0, int width, int height) {
+      int x1 = x0 + width - 1;
+      int y1 = y0 + height - 1;
+      for (int x = x0; x <= x1; x++) {
+         mergeOutside(parent, x, y0, x0, y0, x1, y1);
+         mergeOutside(parent, x, y1, x0, y0, x1, y1);
+      }
+      for (int y = y0; y <= y1; y++) {
+         mergeOutside(parent, x0, y, x0, y0, x1, y1);
+         mergeOutside(parent, x1, y, x0, y0, x1, y1);
+      }
+   }
+
+   private void mergeOutside(int[] parent, int x, int y, int x0, int y0, int x1, int y1) {
+      int i = y * width_ + x;
+      if (parent[i] < 0) {
+         return;
+      }
+      for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, height_ - 1); ny++) {
+         for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, width_ - 1); nx++) {
+            boolean inside = nx >= x0 && nx <= x1 && ny >= y0 && ny <= y1;
+            if (!inside && parent[ny * width_ + nx] >= 0) {
+               union(parent, i, ny * width_ + nx);
+            }
+         }
+      }
+   }
+
+   private static int find(int[] parent, int i) {
+      while (parent[i] != i) {
+         parent[i] = parent[parent[i]];
+         i = parent[i];
+      }
+      return i;
+   }
+
+   /**
+    * the smallest index becomes the root, i.e. the first pixel of the particle in raster order
+    */
+   private static void union(int[] parent, int a, int b) {
+      int rootA = find(parent, a);
+      int rootB = find(parent, b);
+      if (rootA < rootB) {
+         parent[rootB] = rootA;
+      } else if (rootB < rootA) {
+         parent[rootA] = rootB;
+      }
+   }
+
+   /**
+    * Measure a particle like the Analyzer of ImageJ, in pixels
+    */
+   private void measure(MeasurementTable table, int row, float[] grey) {
+      int label = table.getLabel(row);
+      int[] b = bounds_[label];
+      double n = counts_[label];
+      double xSum = 0, ySum = 0, x2Sum = 0, y2Sum = 0, xySum = 0;
+      double sum = 0, sum2 = 0;
+      double min = Double.MAX_VALUE, max = -Double.MAX_VALUE;
+      for (int y = b[MIN_Y]; y <= b[MAX_Y]; y++) {
+         int dy = y - b[MIN_Y];
+         for (int x = b[MIN_X], i = y * width_ + x; x <= b[MAX_X]; x++, i++) {
+            if (labels_[i] != label) {
+               continue;
+            }
+            int dx = x - b[MIN_X];
+            xSum += dx;
+            ySum += dy;
+            x2Sum += dx * dx;
+            y2Sum += dy * dy;
+            xySum += dx * dy;
+            double v = grey[i];
+            sum += v;
+            sum2 += v * v;
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+         }
+      }
+      double xm = xSum / n;
+      double ym = ySum / n;
+      table.set(MeasurementTable.AREA, row, n);
+      table.set(MeasurementTable.MEAN, row, sum / n);
+      table.set(MeasurementTable.STD_DEV, row, n > 1 ? Math.sqrt(Math.max((sum2 - sum * sum / n) / (n - 1), 0)) : 0);
+      table.set(MeasurementTable.MIN, row, min);
+      table.set(MeasurementTable.MAX, row, max);
+      table.set(MeasurementTable.X_CENTROID, row, b[MIN_X] + xm + 0.5);
+      table.set(MeasurementTable.Y_CENTROID, row, b[MIN_Y] + ym + 0.5);
+
+      int[][] outline = trace(label);
+      int nPoints = outline[0].length;
+      double perimeter = getTracedPerimeter(outline[0], outline[1]);
+      double[] ellipse = fitEllipse(n, x2Sum / n - xm * xm + 1 / 12.0, y2Sum / n - ym * ym + 1 / 12.0,
+            xySum / n - xm * ym);
+      double major = ellipse[0];
+      double minor = ellipse[1];
+      table.set(MeasurementTable.PERIMETER, row, perimeter);
+      table.set(MeasurementTable.MAJOR, row, major);
+      table.set(MeasurementTable.MINOR, row, minor);
+      table.set(MeasurementTable.ANGLE, row, ellipse[2]);
+      table.set(MeasurementTable.CIRCULARITY, row,
+            perimeter == 0 ? 0 : Math.min(4 * Math.PI * n / (perimeter * perimeter), 1));
+      table.set(MeasurementTable.ASPECT_RATIO, row, major / minor);
+      table.set(MeasurementTable.ROUNDNESS, row, 4 * n / (Math.PI * major * major));
+      table.set(MeasurementTable.SOLIDITY, row, n / getConvexHullArea(outline[0], outline[1]));
+      table.setRoi(row, new PolygonRoi(outline[0], outline[1], nPoints, Roi.TRACED_ROI));
+   }
+
+   private boolean isLabel(int label, int x, int y) {
+      return x >= 0 && y >= 0 && x < width_ && y < height_ && labels_[y * width_ + x] == label;
+   }
+
+   /**
+    * Follow the outer border of a particle between the pixels, the particle on the left, from
+    * the upper left corner of its first pixel going down. Only the corners are kept, like the
+    * traced ROIs of the Wand.
+    *
+    * @return x and y of the corners
+    */
+   private int[][] trace(int label) {
+      int x0 = starts_[label] % width_;
+      int y0 = starts_[label] / width_;
+      int[] xs = new int[64];
+      int[] ys = new int[64];
+      xs[0] = x0;
+      ys[0] = y0;
+      int n = 1;
+      int x = x0, y = y0, dx = 0, dy = 1;
+      while (true) {
+         x += dx;
+         y += dy;
+         // pixels ahead of the corner, on the right (outside) and on the left (inside)
+         boolean right = isLabel(label, x + (dx - dy < 0 ? -1 : 0), y + (dy + dx < 0 ? -1 : 0));
+         boolean left = isLabel(label, x + (dx + dy < 0 ? -1 : 0), y + (dy - dx < 0 ? -1 : 0));
+         int newDx, newDy;
+         if (right) {
+            newDx = -dy;
+            newDy = dx;
+         } else if (left) {
+            newDx = dx;
+            newDy = dy;
+         } else {
+            newDx = dy;
+            newDy = -dx;
+         }
+         if (x == x0 && y == y0 && newDx == 0 && newDy == 1) {
+            break;
+         }
+         if (newDx != dx || newDy != dy) {
+            if (n == xs.length) {
+               xs = Arrays.copyOf(xs, 2 * n);
+               ys = Arrays.copyOf(ys, 2 * n);
+            }
+            xs[n] = x;
+            ys[n] = y;
+            n++;
+         }
+         dx = newDx;
+         dy = newDy;
+      }
+      return new int[][]{Arrays.copyOf(xs, n), Arrays.copyOf(ys, n)};
+   }
+
+   /**
+    * same as PolygonRoi.getTracedPerimeter()
+    */
+   static double getTracedPerimeter(int[] xp, int[] yp) {
+      int nPoints = xp.length;
+      int sumdx = 0;
+      int sumdy = 0;
+      int nCorners = 0;
+      int dx1 = xp[0] - xp[nPoints - 1];
+      int dy1 = yp[0] - yp[nPoints - 1];
+      int side1 = Math.abs(dx1) + Math.abs(dy1);
+      boolean corner = false;
+      for (int i = 0; i < nPoints; i++) {
+         int next = (i + 1) % nPoints;
+         int dx2 = xp[next] - xp[i];
+         int dy2 = yp[next] - yp[i];
+         sumdx += Math.abs(dx1);
+         sumdy += Math.abs(dy1);
+         int side2 = Math.abs(dx2) + Math.abs(dy2);
+         if (side1 > 1 || !corner) {
+            corner = true;
+            nCorners++;
+         } else {
+            corner = false;
+         }
+         dx1 = dx2;
+         dy1 = dy2;
+         side1 = side2;
+      }
+      return sumdx + sumdy - nCorners * (2.0 - Math.sqrt(2.0));
+   }
+
+   /**
+    * same as the EllipseFitter of ImageJ, from the central moments (y down)
+    *
+    * @return major, minor and angle in degrees
+    */
+   static double[] fitEllipse(double n, double x2, double y2, double xy) {
+      double m4 = 4.0 * Math.abs(y2 * x2 - xy * xy);
+      if (m4 < 0.000001) {
+         m4 = 0.000001;
+      }
+      double a11 = y2 / m4;
+      double a12 = xy / m4;
+      double a22 = x2 / m4;
+      double tmp = a11 - a22;
+      if (tmp == 0.0) {
+         tmp = 0.000001;
+      }
+      double theta = 0.5 * Math.atan(2.0 * a12 / tmp);
+      if (theta < 0.0) {
+         theta += Math.PI / 2;
+      }
+      if (a12 > 0.0) {
+         theta += Math.PI / 2;
+      } else if (a12 == 0.0) {
+         if (a22 > a11) {
+            theta = 0.0;
+            tmp = a22;
+            a22 = a11;
+            a11 = tmp;
+         } else if (a11 != a22) {
+            theta = Math.PI / 2;
+         }
+      }
+      tmp = Math.sin(theta);
+      if (tmp == 0.0) {
+         tmp = 0.000001;
+      }
+      double z = a12 * Math.cos(theta) / tmp;
+      double major = Math.sqrt(1.0 / Math.abs(a22 + z));
+      double minor = Math.sqrt(1.0 / Math.abs(a11 - z));
+      // same area as the particle
+      double scale = Math.sqrt(n / (Math.PI * major * minor));
+      major = major * scale * 2.0;
+      minor = minor * scale * 2.0;
+      double angle = 180.0 * theta / Math.PI;
+      if (angle == 180.0) {
+         angle = 0.0;
+      }
+      if (major < minor) {
+         tmp = major;
+         major = minor;
+         minor = tmp;
+      }
+      return new double[]{major, minor, angle};
+   }
+
+   /**
+    * @return area of the convex hull of the polygon (monotone chain)
+    */
+   static double getConvexHullArea(int[] xp, int[] yp) {
+      int n = xp.length;
+      Integer[] order = new Integer[n];
+      for (int i = 0; i < n; i++) {
+         order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> xp[a] != xp[b] ? Integer.compare(xp[a], xp[b]) : Integer.compare(yp[a], yp[b]));
+      int[] hull = new int[2 * n];
+      int k = 0;
+      for (int i = 0; i < n; i++) {
+         while (k >= 2 && cross(xp, yp, hull[k - 2], hull[k - 1], order[i]) <= 0) {
+            k--;
+         }
+         hull[k++] = order[i];
+      }
+      for (int i = n - 2, lower = k + 1; i >= 0; i--) {
+         while (k >= lower && cross(xp, yp, hull[k - 2], hull[k - 1], order[i]) <= 0) {
+            k--;
+         }
+         hull[k++] = order[i];
+      }
+      double area = 0;
+      for (int i = 0; i < k - 1; i++) {
+         area += (double) xp[hull[i]] * yp[hull[i + 1]] - (double) xp[hull[i + 1]] * yp[hull[i]];
+      }
+      return Math.abs(area) / 2;
+   }
+
+   private static long cross(int[] xp, int[] yp, int o, int a, int b) {
+      return (long) (xp[a] - xp[o]) * (yp[b] - yp[o]) - (long) (yp[a] - yp[o]) * (xp[b] - xp[o]);
+   }
+}
@@ -0,0 +1,72 @@
+package maars.segmentPombe;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * Coarse level of the stack for the coarse to fine segmentation. The correlation is linear in
+ * the pixels : the correlation of the averaged slices is the average of the correlation. The
+ * two levels have the same range of values, so the upsampled coarse correlation can fill the
+ * background of the full resolution one.
+ *
+ * @author Tong LI, mail: tongli.bioinfo@gmail.com
+ */
+class Pyramid {
+
+   private Pyramid() {
+   }
+
+   /**
+    * @param slices pixel arrays of the stack, null for the slices not used
+    * @param width  width of the stack
+    * @param height height of the stack
+    * @param factor reduction factor, the pixels beyond a multiple of it are dropped
+    * @return float[] slices, mean of each factor x factor block, null where slices is null
+    */
+   static Object[] downsample(Object[] slices, int width, int height, int factor) {
+      int coarseWidth = width / factor;
+      int coarseHeight = height / factor;
+      float norm = 1f / (factor * factor);
+      Object[] coarse = new Object[slices.length];
+      IntStream.range(0, slices.length).parallel().filter(z -> slices[z] != null).forEach(z -> {
+         float[] pixels = new float[coarseWidth * coarseHeight];
+         double[] row = new double[width];
+         for (int cy = 0; cy < coarseHeight; cy++) {
+            Arrays.fill(row, 0);
+            for (int y = cy * factor; y < (cy + 1) * factor; y++) {
+               ComputeImageCorrelation.accumulate(slices[z], y * width, 1, row);
+            }
+            for (int cx = 0; cx < coarseWidth; cx++) {
+               double sum = 0;
+               for (int x = cx * factor; x < (cx + 1) * factor; x++) {
+                  sum += row[x];
+               }
+               pixels[cy * coarseWidth + cx] = (float) sum * norm;
+            }
+         }
+         coarse[z] = pixels;
+      });
+      return coarse;
+   }
+
+   /**
+    * Nearest neighbour upsampling, the last coarse pixels are repeated up to the edges
+    *
+    * @param coarse       coarse image
+    * @param coarseWidth  width of the coarse image
+    * @param coarseHeight height of the coarse image
+    * @param factor       reduction factor
+    * @param full         full resolution image, written
+    * @param width        width of the full resolution image
+    * @param height       height of the full resolution image
+    */
+   static void upsample(float[] coarse, int coarseWidth, int coarseHeight, int factor, float[] full,
+                        int width, int height) {
+      IntStream.range(0, height).parallel().forEach(y -> {
+         int cy = Math.min(y / factor, coarseHeight - 1);
+         for (int x = 0; x < width; x++) {
+            full[y * width + x] = coarse[cy * coarseWidth + Math.min(x / factor, coarseWidth - 1)];
+         }
+      });
+   }
+}
@@ -2,17 +2,16 @@ package maars.segmentPombe;
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.gui.Roi;
 import ij.gui.WaitForUserDialog;
 import ij.io.FileSaver;
-import ij.measure.Measurements;
 import ij.measure.ResultsTable;
-import ij.plugin.filter.ParticleAnalyzer;
-import ij.plugin.frame.RoiManager;
-import ij.process.AutoThresholder;
+import ij.plugin.ContrastEnhancer;
 import ij.process.BinaryProcessor;
 import ij.process.ByteProcessor;
 import ij.process.FloatProcessor;
 import maars.io.IOUtils;
+import maars.io.LabelMapFile;
 
 import javax.swing.*;
 import java.awt.*;
@@ -21,12 +20,8 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 /**
  * @author Tong LI, mail: tongli.bioinfo@gmail.com
@@ -50,7 +45,9 @@ public class SegPombe {
    private ImagePlus binImage;
    private ImagePlus imgCorrTemp;
    private ResultsTable resultTable;
-   private RoiManager roiManager;
+   private MeasurementTable measurements;
+   private ParticleLabeler labeler;
+   private ArrayList<Roi> rois = new ArrayList<>();
    // Options related to display and save
    private boolean showCorrelationImg;
    private boolean showBinaryImg;
@@ -62,9 +59,13 @@ public class SegPombe {
    private boolean saveFocusImage;
    private boolean saveRoi;
    private int direction;
+   private boolean weightedSliceSum;
+   private boolean sparseZ;
+   private int thresholdRadius;
+   private int correlationCacheSize;
+   private int pyramidFactor;
+   private FloatProcessor correlation;
    private PrintStream ps;
-   private PrintStream curr_err;
-   private PrintStream curr_out;
 
    /**
     * Constructor
@@ -74,14 +75,12 @@ public class SegPombe {
    public SegPombe(SegPombeParameters parameters) {
       this.imageToAnalyze = parameters.getImageToAnalyze();
       this.savingPath = parameters.getSavingPath();
+      // log of this segmentation only, System.out is left alone for the other threads
       try {
          ps = new PrintStream(savingPath + File.separator + "Segmentation.LOG");
-         curr_err = System.err;
-         curr_out = System.out;
-         System.setOut(ps);
-         System.setErr(ps);
       } catch (FileNotFoundException e) {
          IOUtils.printErrorToIJLog(e);
+         ps = System.out;
       }
 
       this.sigma = parameters.getSigma();
@@ -90,6 +89,12 @@ public class SegPombe {
       this.minParticleInMicron = parameters.getMinParticleSize();
       this.maxParticleInMicron = parameters.getMaxParticleSize();
       this.direction = parameters.getDirection();
+      this.weightedSliceSum = parameters.weightedSliceSum();
+      this.sparseZ = parameters.sparseZ();
+      this.thresholdRadius = parameters.getThresholdRadius();
+      this.correlationCacheSize = parameters.getCorrelationCacheSize();
+      this.pyramidFactor = parameters.getPyramidFactor();
+      this.correlation = parameters.getCorrelation();
 
       // ResultOptions
       this.showCorrelationImg = parameters.showCorrelationImg();
@@ -114,7 +119,7 @@ public class SegPombe {
    }
 
    private void getFocusImage() {
-      System.out.println("get Focus Image");
+      ps.println("get Focus Image");
 
       imageToAnalyze.setZ(Math.round(zFocus));
 
@@ -125,180 +130,276 @@ public class SegPombe {
       }
 
       if (saveFocusImage) {
-         IJ.run(focusImg, "Enhance Contrast", "saturated=0.35");
+         new ContrastEnhancer().stretchHistogram(focusImg, 0.35);
          FileSaver fileSaver = new FileSaver(focusImg);
          fileSaver.saveAsTiff(savingPath + File.separator + "FocusImage.tif");
       }
-      imageToAnalyze.flatten();
-      System.out.println("FocusImage saved.");
+      ps.println("FocusImage saved.");
    }
 
    /**
     * Create an image correlation where each pixel corresponds to the
     * correlation of a specific curve see equation in computeCorrelation object
+    *
+    * @throws RuntimeException if the correlation of a part of the image fails
     */
    public void createCorrelationImage() {
+      if (correlation != null) {
+         ps.println("Correlation image accumulated during acquisition");
+         imgCorrTempProcessor = correlation;
+         return;
+      }
 
-      System.out.println("creating correlation image");
-      System.out.println("Width : " + String.valueOf(imageToAnalyze.getWidth()) + ", Height : "
+      ps.println("creating correlation image");
+      ps.println("Width : " + String.valueOf(imageToAnalyze.getWidth()) + ", Height : "
             + String.valueOf(imageToAnalyze.getHeight()));
-      int nbProcessor = Runtime.getRuntime().availableProcessors();
-      System.out.println("Compute correlation with " + nbProcessor + " processor");
-      ImageSplitter splitter = new ImageSplitter(imageToAnalyze, nbProcessor);
-      int xPosition = 0;
-      ImagePlus subImg;
+      ps.println("Compute correlation with " + CorrelationTiles.getParallelism() + " processor");
       long start = System.currentTimeMillis();
-      ExecutorService executor = Executors.newFixedThreadPool(nbProcessor);
-      Map<Integer, Future<FloatProcessor>> map = new HashMap<>();
-      Future<FloatProcessor> task;
-      int[] widths = splitter.getWidths();
-      for (int i = 0; i < nbProcessor; i++) {
-         if (i == 0) {
-            subImg = splitter.crop(xPosition, widths[1]);
-            task = executor.submit(new ComputeImageCorrelation(subImg, zFocus, sigma, direction));
-            map.put(xPosition, task);
-            xPosition += widths[1];
-         } else {
-            IJ.showStatus("Computing correlation image");
-            subImg = splitter.crop(xPosition, widths[0]);
-            task = executor.submit(new ComputeImageCorrelation(subImg, zFocus, sigma, direction));
-            map.put(xPosition, task);
-            xPosition += widths[0];
-         }
+      int width = imageToAnalyze.getWidth();
+      int height = imageToAnalyze.getHeight();
+      int nSlices = imageToAnalyze.getStackSize();
+      ComputeCorrelation computeCorrelation = new ComputeCorrelation(zFocus, sigma, direction);
+      computeCorrelation.preCalculateParameters(0, nSlices - 1);
+      double[] weights = computeCorrelation.getSliceWeights(nSlices);
+      ps.println(weightedSliceSum ? "Weighted slice sum" : "Simpson integration");
+      if (weightedSliceSum && sparseZ) {
+         ps.println("Sparse z : " + ComputeCorrelation.dropNegligibleWeights(weights) + " of " + nSlices
+               + " slices contribute");
       }
-      imgCorrTempProcessor = new FloatProcessor(imageToAnalyze.getWidth(), imageToAnalyze.getHeight());
-      try {
-         for (int xPos : map.keySet()) {
-            FloatProcessor processor = map.get(xPos).get();
-            for (int x = 0; x < processor.getWidth(); x++) {
-               IJ.showStatus("Rendering correlation image");
-               for (int y = 0; y < processor.getHeight(); y++) {
-                  imgCorrTempProcessor.putPixel(x + xPos, y, processor.get(x, y));
-               }
-            }
+      Object[] slices = ComputeImageCorrelation.readSlices(imageToAnalyze.getStack(),
+            weightedSliceSum ? weights : null);
+      CorrelationCache cache = null;
+      String key = null;
+      if (correlationCacheSize > 0) {
+         cache = new CorrelationCache(new File(savingPath, "correlation_cache"), correlationCacheSize);
+         key = CorrelationCache.key(slices, width, height, zFocus, sigma, direction,
+               weightedSliceSum ? 1 : 0, sparseZ ? 1 : 0, pyramidFactor, thresholdRadius);
+         imgCorrTempProcessor = cache.get(key);
+         if (imgCorrTempProcessor != null) {
+            ps.println("Correlation image " + key + " found in cache");
+            return;
          }
-      } catch (InterruptedException | ExecutionException e) {
-         IOUtils.printErrorToIJLog(e);
       }
-      executor.shutdown();
+      float[] correlation = new float[width * height];
+      IJ.showStatus("Computing correlation image");
+      // a failure propagates : the image is incomplete, it is neither segmented nor cached
+      if (pyramidFactor > 1) {
+         computeCoarseToFine(slices, computeCorrelation, weights, correlation);
+      } else {
+         CorrelationTiles.run(width, height, (x0, y0, tileWidth, tileHeight) ->
+               newCorrelationTask(slices, width, computeCorrelation, weights, correlation,
+                     x0, y0, tileWidth, tileHeight));
+      }
+      imgCorrTempProcessor = new FloatProcessor(width, height, correlation);
+      if (cache != null) {
+         cache.put(key, imgCorrTempProcessor);
+      }
       IJ.log("Segmentation took " + (double) (System.currentTimeMillis() - start) / 1000 + " sec");
    }
 
+   private Runnable newCorrelationTask(Object[] slices, int stackWidth, ComputeCorrelation computeCorrelation,
+                                       double[] weights, float[] correlation, int x0, int y0, int width,
+                                       int height) {
+      return weightedSliceSum ?
+            WeightedSliceSum.newTask(slices, stackWidth, weights, correlation, x0, y0, width, height) :
+            new ComputeImageCorrelation(slices, stackWidth, computeCorrelation, correlation, x0, y0, width, height);
+   }
+
+   /**
+    * Compute the correlation on the stack reduced by pyramidFactor and find the cells on it. The
+    * correlation is then computed at full resolution only in the bounding boxes of the cells
+    * (plus a margin of 2 coarse pixels), the rest of the image is the upsampled coarse correlation.
+    */
+   private void computeCoarseToFine(Object[] slices, ComputeCorrelation computeCorrelation, double[] weights,
+                                    float[] correlation) {
+      int width = imageToAnalyze.getWidth();
+      int height = imageToAnalyze.getHeight();
+      int coarseWidth = width / pyramidFactor;
+      int coarseHeight = height / pyramidFactor;
+      ps.println("Coarse correlation at 1/" + pyramidFactor + " : " + coarseWidth + " x " + coarseHeight);
+      Object[] coarseSlices = Pyramid.downsample(slices, width, height, pyramidFactor);
+      float[] coarse = new float[coarseWidth * coarseHeight];
+      CorrelationTiles.run(coarseWidth, coarseHeight, (x0, y0, tileWidth, tileHeight) ->
+            newCorrelationTask(coarseSlices, coarseWidth, computeCorrelation, weights, coarse,
+                  x0, y0, tileWidth, tileHeight));
+      Pyramid.upsample(coarse, coarseWidth, coarseHeight, pyramidFactor, correlation, width, height);
+
+      byte[] binary = new Binarizer(coarseWidth, coarseHeight).threshold(coarse, thresholdRadius / pyramidFactor);
+      Binarizer.keepMinorityAsForeground(binary);
+      ParticleLabeler labeler = new ParticleLabeler(coarseWidth, coarseHeight);
+      labeler.label(binary);
+      int margin = 2 * pyramidFactor;
+      long nPixels = 0;
+      int[][] boxes = new int[labeler.getNbLabels()][];
+      for (int label = 1; label <= boxes.length; label++) {
+         int[] b = labeler.getBounds(label);
+         int x0 = Math.max(b[0] * pyramidFactor - margin, 0);
+         int y0 = Math.max(b[1] * pyramidFactor - margin, 0);
+         int x1 = Math.min((b[2] + 1) * pyramidFactor + margin, width);
+         int y1 = Math.min((b[3] + 1) * pyramidFactor + margin, height);
+         boxes[label - 1] = new int[]{x0, y0, x1 - x0, y1 - y0};
+         nPixels += (long) (x1 - x0) * (y1 - y0);
+      }
+      ps.println("Refine " + boxes.length + " cells, " + nPixels + " pixels of " + (long) width * height);
+      Arrays.stream(boxes).parallel().forEach(box -> newCorrelationTask(slices, width, computeCorrelation, weights,
+            correlation, box[0], box[1], box[2], box[3]).run());
+   }
+
    /**
     * This method set a threshold with Ostu method on the correlation image and
     * convert it into Binary Image
-    *
-    * @param batchMode batch mode for optimization of segmentation
     */
-   public void convertCorrelationToBinaryImage(Boolean batchMode, Double tolerance) {
-
-      System.out.println("Convert correlation image to binary image");
-
-      ByteProcessor byteImage = imgCorrTempProcessor.convertToByteProcessor(true);
-      byteImage.setAutoThreshold(AutoThresholder.Method.Otsu, true, BinaryProcessor.BLACK_AND_WHITE_LUT);
-
-      // image pre-processing
-      IJ.run("Options...", "iterations=1 count=1");
-      byteImage.dilate();
-      byteImage.erode();
-      byteImage.applyLut();
-      // if the thresholding and the making binary image produced a white
-      // background, change it
-      if (byteImage.getStatistics().mode > 127) {
-         System.out.println("Invert image");
-         byteImage.invert();
+   public void convertCorrelationToBinaryImage() {
+
+      ps.println("Convert correlation image to binary image");
+      ps.println(thresholdRadius > 0 ? "Local threshold, radius " + thresholdRadius : "Otsu threshold");
+
+      int width = imgCorrTempProcessor.getWidth();
+      int height = imgCorrTempProcessor.getHeight();
+      Binarizer binarizer = new Binarizer(width, height);
+      // image pre-processing, one dilation then one erosion (closing) of the pixels above the threshold
+      byte[] binary = binarizer.close(binarizer.threshold((float[]) imgCorrTempProcessor.getPixels(), thresholdRadius));
+      // if the thresholding produced a white background, change it
+      if (Binarizer.keepMinorityAsForeground(binary)) {
+         ps.println("Invert image");
       }
-      BinaryProcessor binImage = new BinaryProcessor(byteImage);
+      BinaryProcessor binImage = new BinaryProcessor(new ByteProcessor(width, height, binary));
       this.binImage = new ImagePlus("binary Image of " + imageToAnalyze.getShortTitle(), binImage);
 
       if (imageToAnalyze.getCalibration().scaled()) {
          this.binImage.setCalibration(imageToAnalyze.getCalibration());
       }
+   }
 
-      if (!batchMode || tolerance == Integer.MAX_VALUE) {
-         this.binImage.show();
-         WaitForUserDialog waitForUserDialog = new WaitForUserDialog("Optimize (or not) segmentation of "+
-               imageToAnalyze.getShortTitle()+ ", and click ok.");
-         JButton adjWaterButton = new JButton("Adjustable Watershed");
-         adjWaterButton.addActionListener(actionEvent -> {
-            //IJ.run(this.binImage, "Adjustable_Watershed.java","");
-            IJ.run(this.binImage, "Compile and Run...",
-                  "compile="+IJ.getDirectory("plugins") +"Adjustable_Watershed.java");
-         });
-         waitForUserDialog.setAlwaysOnTop(false);
-         waitForUserDialog.setLayout(new BorderLayout());
-         waitForUserDialog.add(adjWaterButton, BorderLayout.SOUTH);
-         waitForUserDialog.setMinimumSize(new Dimension(200, 130));
-         waitForUserDialog.show();
-         this.binImage.hide();
-      } else {
-         System.out.println("no improvement on binary");
-//         IJ.run(this.binImage, IJ.getDirectory("plugins") +"Adjustable Watershed",
-//               "tolerance=" + tolerance);
-      }
+   /**
+    * Let the user correct the binary image (with the Adjustable Watershed) before the particle
+    * analysis. Interactive mode only, it waits for the user.
+    */
+   public void reviewBinaryImage() {
+      this.binImage.show();
+      WaitForUserDialog waitForUserDialog = new WaitForUserDialog("Optimize (or not) segmentation of "+
+            imageToAnalyze.getShortTitle()+ ", and click ok.");
+      JButton adjWaterButton = new JButton("Adjustable Watershed");
+      adjWaterButton.addActionListener(actionEvent -> {
+         double tolerance = IJ.getNumber("Tolerance (0.5 is ImageJ standard)", 1);
+         if (tolerance > 0) {
+            splitTouchingCells(tolerance);
+            this.binImage.updateAndDraw();
+         }
+      });
+      waitForUserDialog.setAlwaysOnTop(false);
+      waitForUserDialog.setLayout(new BorderLayout());
+      waitForUserDialog.add(adjWaterButton, BorderLayout.SOUTH);
+      waitForUserDialog.setMinimumSize(new Dimension(200, 130));
+      waitForUserDialog.show();
+      this.binImage.hide();
+   }
+
+   /**
+    * Split the touching cells of the binary image with a watershed of its distance map,
+    * usable headless
+    *
+    * @param tolerance minimum height of a maximum of the distance map to be a cell, in pixels
+    */
+   public void splitTouchingCells(double tolerance) {
+      ps.println("Watershed with tolerance " + tolerance);
+      long start = System.currentTimeMillis();
+      int nLines = new Watershed(binImage.getWidth(), binImage.getHeight())
+            .split((byte[]) binImage.getProcessor().getPixels(), tolerance);
+      ps.println(nLines + " pixels of lines in " + (System.currentTimeMillis() - start) + " ms");
    }
 
    /**
     * Run with output of convertCorrelationToBinaryImage as parameter. It
     * analyse particles of the image and filter them according to there area,
-    * and there solidity value (if requested)
+    * and there mean grey value and solidity (if requested) in a single pass
     */
    public void analyseAndFilterParticles() {
 
-      System.out.println("Segment and filtrate");
+      ps.println("Segment and filtrate");
 
-      resultTable = new ResultsTable();
-
-      if (RoiManager.getInstance() != null) {
-         roiManager = RoiManager.getInstance();
-
-      } else {
-         roiManager = new RoiManager();
-      }
+      rois.clear();
 
       imgCorrTemp = new ImagePlus("Correlation Image", imgCorrTempProcessor);
 
-      ParticleAnalyzer.setRoiManager(roiManager);
-      ParticleAnalyzer particleAnalyzer = new ParticleAnalyzer(
-            ParticleAnalyzer.EXCLUDE_EDGE_PARTICLES + ParticleAnalyzer.SHOW_PROGRESS
-                  + ParticleAnalyzer.ADD_TO_MANAGER,
-            Measurements.AREA + Measurements.CENTROID + Measurements.PERIMETER + Measurements.SHAPE_DESCRIPTORS
-                  + Measurements.ELLIPSE,
-            resultTable, minParticleInMicron, maxParticleInMicron);
-      System.out.println("minParticleSize " + minParticleInMicron + " maxParticleSize " + maxParticleInMicron);
-      System.out.println("Analyse particles on " + binImage.getTitle() + " ...");
-
-      particleAnalyzer.analyze(binImage);
-      System.out.println("Done");
-      Integer nbRoi = roiManager.getCount();
+      ps.println("minParticleSize " + minParticleInMicron + " maxParticleSize " + maxParticleInMicron);
+      ps.println("Analyse particles on " + binImage.getTitle() + " ...");
+      long start = System.currentTimeMillis();
+      labeler = new ParticleLabeler(binImage.getWidth(), binImage.getHeight());
+      MeasurementTable particles = labeler.analyze((byte[]) binImage.getProcessor().getPixels(),
+            (float[]) imgCorrTempProcessor.getPixels(), minParticleInMicron, maxParticleInMicron, true);
+      ps.println(particles.size() + " of " + labeler.getNbLabels() + " particles kept in "
+            + (System.currentTimeMillis() - start) + " ms");
       ArrayList<CellFilter> filters = new ArrayList<>();
       if (filtrateWithMeanGrayValue) {
-         filters.add(new CellFilter(ResultsTable.MEAN, meanGreyValueThreshold, Double.MAX_VALUE));
+         filters.add(new CellFilter(MeasurementTable.MEAN, meanGreyValueThreshold, Double.MAX_VALUE));
       }
       if (filterAbnormalShape) {
-         filters.add(new CellFilter(ResultsTable.SOLIDITY, solidityThreshold, Double.MAX_VALUE));
+         filters.add(new CellFilter(MeasurementTable.SOLIDITY, solidityThreshold, Double.MAX_VALUE));
+      }
+      start = System.currentTimeMillis();
+      measurements = particles.filter(filters);
+      ps.println(measurements.size() + " cells kept by " + filters.size() + " filters in "
+            + (System.currentTimeMillis() - start) + " ms");
+      resultTable = measurements.toResultsTable();
+      for (int row = 0; row < measurements.size(); row++) {
+         Roi roi = measurements.getRoi(row);
+         roi.setName("" + (row + 1));
+         rois.add(roi);
+      }
+   }
+
+   /**
+    * @return measurements of the cells found, in the order of the rois
+    */
+   public MeasurementTable getMeasurements() {
+      return this.measurements;
+   }
+
+   /**
+    * Save the cells as a label map numbered like the rois, with their measurements
+    *
+    * @param path path of the file
+    */
+   public void saveLabelMap(String path) {
+      int[] cellNumbers = new int[labeler.getNbLabels() + 1];
+      int[][] bounds = new int[measurements.size()][];
+      for (int row = 0; row < measurements.size(); row++) {
+         cellNumbers[measurements.getLabel(row)] = row + 1;
+         bounds[row] = labeler.getBounds(measurements.getLabel(row));
       }
-      if (!nbRoi.equals(0)) {
-         CellFilterFacotory facotory = new CellFilterFacotory(resultTable, imgCorrTemp);
-         facotory.filterAll(filters);
+      int[] labels = labeler.getLabels();
+      int[] cells = new int[labels.length];
+      IntStream.range(0, labels.length).parallel().forEach(i -> cells[i] = cellNumbers[labels[i]]);
+      double[][] columns = new double[MeasurementTable.NB_COLUMNS][];
+      for (int column = 0; column < columns.length; column++) {
+         columns[column] = measurements.getColumn(column);
       }
+      LabelMapFile.write(path, binImage.getWidth(), binImage.getHeight(), cells, bounds, columns);
    }
 
    public ResultsTable getRoiMeasurements() {
       return this.resultTable;
    }
 
+   /**
+    * @return cells found, in the order of the measurements
+    */
+   public Roi[] getRois() {
+      return rois.toArray(new Roi[rois.size()]);
+   }
+
    /**
     * Method to show and saved specified results and flush unwanted results
     */
    public void showAndSaveResultsAndCleanUp() {
-      Integer nbRoi = roiManager.getCount();
+      Integer nbRoi = rois.size();
       if (nbRoi.equals(0)) {
          IJ.log("No ROI detected!! Stop here!");
       }
 
       if (saveDataFrame && !nbRoi.equals(0)) {
-         System.out.println("saving data frame...");
+         ps.println("saving data frame...");
          try {
             resultTable.saveAs(savingPath + File.separator + "Results.csv");
          } catch (IOException io) {
@@ -307,57 +408,56 @@ public class SegPombe {
       }
 
       if (showDataFrame) {
-         System.out.println("display data frame");
+         ps.println("display data frame");
          resultTable.show("Result");
-         System.out.println("done.");
+         ps.println("done.");
       }
 
       if (saveRoi && !nbRoi.equals(0)) {
-         System.out.println("saving roi...");
-         roiManager.runCommand("Select All");
-         roiManager.runCommand("Save", savingPath + File.separator + "ROI.zip");
-         roiManager.runCommand("Select All");
-         roiManager.runCommand("Delete");
+         ps.println("saving roi...");
+         IOUtils.saveRois(getRois(), savingPath + File.separator + "ROI.zip");
+         ps.println("saving label map...");
+         saveLabelMap(savingPath + File.separator + LabelMapFile.NAME);
       }
 
       if (showFocusImage) {
-         System.out.println("show focus image");
+         ps.println("show focus image");
          focusImg.show();
       } else {
-         System.out.println("flush focus image");
+         ps.println("flush focus image");
          focusImg.flush();
       }
 
       if (saveBinaryImg) {
-         System.out.println("save binary image");
+         ps.println("save binary image");
          binImage.setTitle("BinaryImage");
          FileSaver fileSaver = new FileSaver(binImage);
          fileSaver.saveAsTiff(savingPath + File.separator + "BinaryImage.tif");
       }
       if (showBinaryImg) {
-         System.out.println("show binary image");
+         ps.println("show binary image");
          binImage.show();
       } else {
-         System.out.println("flush binary image");
+         ps.println("flush binary image");
          binImage.flush();
       }
 
       if (saveCorrelationImg) {
-         System.out.println("save correlation image");
+         ps.println("save correlation image");
          imgCorrTemp.setTitle("CorrelationImage");
-         IJ.run(imgCorrTemp, "Enhance Contrast", "saturated=0.35");
+         new ContrastEnhancer().stretchHistogram(imgCorrTemp, 0.35);
          FileSaver fileSaver = new FileSaver(imgCorrTemp);
          fileSaver.saveAsTiff(savingPath + File.separator + "CorrelationImage.tif");
       }
       if (showCorrelationImg) {
-         System.out.println("show correlation image");
+         ps.println("show correlation image");
          imgCorrTemp.show();
       } else {
-         System.out.println("flush correlation image");
+         ps.println("flush correlation image");
          imgCorrTemp.flush();
       }
-      ps.close();
-      System.setOut(curr_out);
-      System.setErr(curr_err);
+      if (ps != System.out) {
+         ps.close();
+      }
    }
 }
@@ -1,6 +1,7 @@
 package maars.segmentPombe;
 
 import ij.ImagePlus;
+import ij.process.FloatProcessor;
 
 /**
  * @author Tong LI, mail: tongli.bioinfo@gmail.com
@@ -21,13 +22,25 @@ public class SegPombeParameters {
    private ImagePlus imageToAnalyze;
    private float sigma = 3;
    //	public static double acquisitionStep = 0.3;
-   private int focusSlide = 17;
+   private float focusSlide = 17;
    private boolean changeScale = true;
    private int maxWidth = 3000;
    private int maxHeight = 3000;
    private int direction = -1; // this is the direction of the equation to integrate
    // it is -1 for image with cell boundaries be black then white
    // it is 1 for image with cell boundaries be white then black
+   // correlation as a weighted sum of slices instead of the Simpson integration per pixel
+   private boolean weightedSliceSum = true;
+   // only read and sum the slices of non negligible weight, weighted slice sum only
+   private boolean sparseZ = true;
+   // radius in pixels of the local threshold, 0 for a global Otsu threshold
+   private int thresholdRadius = 0;
+   // number of correlation images kept on disk to be reused, 0 for no cache
+   private int correlationCacheSize = 0;
+   // reduction of the coarse level of the coarse to fine segmentation, 1 to segment at full resolution only
+   private int pyramidFactor = 1;
+   // correlation image already computed, by a CorrelationAccumulator
+   private FloatProcessor correlation;
    // Parameters to filter results
    private double minParticleSize = 500;
    private double maxParticleSize = 40000;
@@ -104,6 +117,58 @@ public class SegPombeParameters {
       this.direction = direction;
    }
 
+   boolean weightedSliceSum() {
+      return weightedSliceSum;
+   }
+
+   public void setWeightedSliceSum(boolean weightedSliceSum) {
+      this.weightedSliceSum = weightedSliceSum;
+   }
+
+   boolean sparseZ() {
+      return sparseZ;
+   }
+
+   public void setSparseZ(boolean sparseZ) {
+      this.sparseZ = sparseZ;
+   }
+
+   int getThresholdRadius() {
+      return thresholdRadius;
+   }
+
+   public void setThresholdRadius(int thresholdRadius) {
+      this.thresholdRadius = thresholdRadius;
+   }
+
+   int getCorrelationCacheSize() {
+      return correlationCacheSize;
+   }
+
+   public void setCorrelationCacheSize(int correlationCacheSize) {
+      this.correlationCacheSize = correlationCacheSize;
+   }
+
+   int getPyramidFactor() {
+      return pyramidFactor;
+   }
+
+   public void setPyramidFactor(int pyramidFactor) {
+      this.pyramidFactor = pyramidFactor;
+   }
+
+   FloatProcessor getCorrelation() {
+      return correlation;
+   }
+
+   /**
+    * @param correlation correlation image already computed, the image to analyze is then only
+    *                    used for the focus image : it can be the focus slice alone
+    */
+   public void setCorrelation(FloatProcessor correlation) {
+      this.correlation = correlation;
+   }
+
    boolean showCorrelationImg() {
       return showCorrelationImg;
    }
@@ -236,11 +301,14 @@ public class SegPombeParameters {
       this.filtrateWithMeanGrayValue = filtrateWithMeanGrayValue;
    }
 
-   public int getFocusSlide() {
+   public float getFocusSlide() {
       return focusSlide;
    }
 
-   public void setFocusSlide(int focusSlide) {
+   /**
+    * @param focusSlide focus slice (1 based), can be between two slices (see {@link FocusFinder})
+    */
+   public void setFocusSlide(float focusSlide) {
       this.focusSlide = focusSlide;
    }
 }
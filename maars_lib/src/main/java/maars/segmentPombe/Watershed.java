@@ -0,0 +1,312 @@
+package maars.segmentPombe;
+
+import java.util.Arrays;
+
+/**
+ * Split the touching cells of a binary image, like the Adjustable_Watershed plugin : watershed
+ * of the Euclidean distance map, from the maxima standing out of it by more than a tolerance.
+ * <ul>
+ * <li>the exact distance transform is computed in two separable passes, columns then rows,
+ * each one in parallel</li>
+ * <li>the pixels are visited from the highest distance down, the basins growing as they meet :
+ * the lower of two meeting basins is a seed only if its peak is at least tolerance above the
+ * meeting point</li>
+ * <li>the seeds are flooded through a priority queue, the pixels where two basins meet become
+ * background</li>
+ * </ul>
+ *
+ * @author Tong LI, mail: tongli.bioinfo@gmail.com
+ */
+class Watershed {
+   private static final float INFINITY = Float.MAX_VALUE;
+   private int width_;
+   private int height_;
+
+   /**
+    * @param width  width of the image
+    * @param height height of the image
+    */
+   Watershed(int width, int height) {
+      width_ = width;
+      height_ = height;
+   }
+
+   /**
+    * @param binary    binary image, cells are the pixels different from 0. The lines between
+    *                  the cells are set to 0
+    * @param tolerance minimum height of a maximum of the distance map above the saddle to the
+    *                  higher one, in pixels. 0.5 is the Watershed of ImageJ
+    * @return number of lines pixels
+    */
+   int split(byte[] binary, double tolerance) {
+      float[] distances = distanceMap(binary);
+      int[] labels = findSeeds(binary, distances, tolerance);
+      return flood(binary, distances, labels);
+   }
+
+   /**
+    * @return distance of every pixel to the closest background pixel, 0 for the background.
+    * The edges of the image are not background
+    */
+   float[] distanceMap(byte[] binary) {
+      float[] squares = new float[width_ * height_];
+      for (int i = 0; i < squares.length; i++) {
+         squares[i] = binary[i] == 0 ? 0 : INFINITY;
+      }
+      // a 1 pixel high image split in blocks of columns, then a 1 pixel wide one in blocks of rows
+      CorrelationTiles.run(width_, 1, (x0, y0, nColumns, h) -> () -> {
+         float[] f = new float[height_];
+         float[] d = new float[height_];
+         int[] v = new int[height_];
+         double[] z = new double[height_ + 1];
+         for (int x = x0; x < x0 + nColumns; x++) {
+            for (int y = 0; y < height_; y++) {
+               f[y] = squares[y * width_ + x];
+            }
+            transform(f, d, v, z, height_);
+            for (int y = 0; y < height_; y++) {
+               squares[y * width_ + x] = d[y];
+            }
+         }
+      });
+      float[] distances = new float[width_ * height_];
+      CorrelationTiles.run(1, height_, (x0, y0, w, nRows) -> () -> {
+         float[] f = new float[width_];
+         float[] d = new float[width_];
+         int[] v = new int[width_];
+         double[] z = new double[width_ + 1];
+         for (int y = y0; y < y0 + nRows; y++) {
+            System.arraycopy(squares, y * width_, f, 0, width_);
+            transform(f, d, v, z, width_);
+            for (int x = 0; x < width_; x++) {
+               distances[y * width_ + x] = (float) Math.sqrt(d[x]);
+            }
+         }
+      });
+      return distances;
+   }
+
+   /**
+    * 1D squared distance transform (lower envelope of parabolas, Felzenszwalb and Huttenlocher)
+    */
+   private static void transform(float[] f, float[] d, int[] v, double[] z, int n) {
+      int k = -1;
+      for (int q = 0; q < n; q++) {
+         if (f[q] == INFINITY) {
+            continue;
+         }
+         double s = 0;
+         while (k >= 0) {
+            s = ((f[q] + (double) q * q) - (f[v[k]] + (double) v[k] * v[k])) / (2.0 * (q - v[k]));
+            if (s > z[k]) {
+               break;
+            }
+            k--;
+         }
+         k++;
+         v[k] = q;
+         z[k] = k == 0 ? Double.NEGATIVE_INFINITY : s;
+         z[k + 1] = Double.POSITIVE_INFINITY;
+      }
+      if (k < 0) {
+         Arrays.fill(d, 0, n, INFINITY);
+         return;
+      }
+      int j = 0;
+      for (int q = 0; q < n; q++) {
+         while (z[j + 1] < q) {
+            j++;
+         }
+         double dq = q - v[j];
+         d[q] = (float) (dq * dq + f[v[j]]);
+      }
+   }
+
+   /**
+    * @return label of the seeds (1 to n), 0 elsewhere
+    */
+   private int[] findSeeds(byte[] binary, float[] distances, double tolerance) {
+      int[] order = sortDescending(binary, distances);
+      int[] parent = new int[binary.length];
+      Arrays.fill(parent, -1);
+      // for the roots : pixel of the peak of the basin
+      int[] peaks = new int[binary.length];
+      boolean[] seeds = new boolean[binary.length];
+      for (int p : order) {
+         parent[p] = p;
+         peaks[p] = p;
+         int x = p % width_;
+         int y = p / width_;
+         for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, height_ - 1); ny++) {
+            for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, width_ - 1); nx++) {
+               int q = ny * width_ + nx;
+               if (parent[q] < 0) {
+                  continue;
+               }
+               int rootP = find(parent, p);
+               int rootQ = find(parent, q);
+               if (rootP == rootQ) {
+                  continue;
+               }
+               boolean pIsLower = distances[peaks[rootP]] < distances[peaks[rootQ]];
+               int lower = pIsLower ? rootP : rootQ;
+               int higher = pIsLower ? rootQ : rootP;
+               if (distances[peaks[lower]] - distances[p] >= tolerance) {
+                  seeds[peaks[lower]] = true;
+               }
+               parent[lower] = higher;
+            }
+         }
+      }
+      // the highest peak of each cell is always a seed
+      for (int p : order) {
+         if (parent[p] == p) {
+            seeds[peaks[p]] = true;
+         }
+      }
+      int[] labels = new int[binary.length];
+      int nSeeds = 0;
+      for (int p = 0; p < seeds.length; p++) {
+         if (seeds[p]) {
+            labels[p] = ++nSeeds;
+         }
+      }
+      return labels;
+   }
+
+   /**
+    * @return indices of the foreground pixels, from the highest distance to the lowest
+    */
+   private static int[] sortDescending(byte[] binary, float[] distances) {
+      int n = 0;
+      for (byte b : binary) {
+         if (b != 0) {
+            n++;
+         }
+      }
+      // positive floats sort like their bits
+      long[] keys = new long[n];
+      for (int i = 0, k = 0; i < binary.length; i++) {
+         if (binary[i] != 0) {
+            keys[k++] = key(distances, i);
+         }
+      }
+      Arrays.parallelSort(keys);
+      int[] order = new int[n];
+      for (int k = 0; k < n; k++) {
+         order[k] = (int) keys[n - 1 - k];
+      }
+      return order;
+   }
+
+   private static int find(int[] parent, int i) {
+      while (parent[i] != i) {
+         parent[i] = parent[parent[i]];
+         i = parent[i];
+      }
+      return i;
+   }
+
+   /**
+    * Meyer flooding of the distance map from the seeds, highest distance first
+    *
+    * @return number of pixels of the lines
+    */
+   private int flood(byte[] binary, float[] distances, int[] labels) {
+      final int line = -1;
+      boolean[] queued = new boolean[binary.length];
+      LongHeap heap = new LongHeap(1024);
+      for (int p = 0; p < labels.length; p++) {
+         if (labels[p] > 0) {
+            queued[p] = true;
+            heap.push(key(distances, p));
+         }
+      }
+      int nLines = 0;
+      while (heap.size() > 0) {
+         int p = (int) heap.pop();
+         int x = p % width_;
+         int y = p / width_;
+         if (labels[p] == 0) {
+            int label = 0;
+            for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, height_ - 1); ny++) {
+               for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, width_ - 1); nx++) {
+                  int l = labels[ny * width_ + nx];
+                  if (l > 0 && label == 0) {
+                     label = l;
+                  } else if (l > 0 && l != label) {
+                     label = line;
+                  }
+               }
+            }
+            labels[p] = label;
+            if (label == line) {
+               binary[p] = 0;
+               nLines++;
+               continue;
+            }
+         }
+         for (int ny = Math.max(y - 1, 0); ny <= Math.min(y + 1, height_ - 1); ny++) {
+            for (int nx = Math.max(x - 1, 0); nx <= Math.min(x + 1, width_ - 1); nx++) {
+               int q = ny * width_ + nx;
+               if (binary[q] != 0 && !queued[q]) {
+                  queued[q] = true;
+                  heap.push(key(distances, q));
+               }
+            }
+         }
+      }
+      return nLines;
+   }
+
+   private static long key(float[] distances, int p) {
+      return (long) Float.floatToIntBits(distances[p]) << 32 | p;
+   }
+
+   /**
+    * max heap of primitive longs
+    */
+   private static class LongHeap {
+      private long[] values_;
+      private int size_;
+
+      LongHeap(int capacity) {
+         values_ = new long[capacity];
+      }
+
+      int size() {
+         return size_;
+      }
+
+      void push(long value) {
+         if (size_ == values_.length) {
+            values_ = Arrays.copyOf(values_, 2 * size_);
+         }
+         int i = size_++;
+         while (i > 0 && values_[(i - 1) / 2] < value) {
+            values_[i] = values_[(i - 1) / 2];
+            i = (i - 1) / 2;
+         }
+         values_[i] = value;
+      }
+
+      long pop() {
+         long top = values_[0];
+         long last = values_[--size_];
+         int i = 0;
+         while (2 * i + 1 < size_) {
+            int child = 2 * i + 1;
+            if (child + 1 < size_ && values_[child + 1] > values_[child]) {
+               child++;
+            }
+            if (values_[child] <= last) {
+               break;
+            }
+            values_[i] = values_[child];
+            i = child;
+         }
+         values_[i] = last;
+         return top;
+      }
+   }
+}
@@ -0,0 +1,109 @@
+package maars.segmentPombe;
+
+import ij.IJ;
+import maars.io.IOUtils;
+
+import java.lang.reflect.Constructor;
+import java.util.Arrays;
+
+/**
+ * Compute the correlation of a rectangle of the stack as a weighted sum of its slices, the
+ * weights coming from {@link ComputeCorrelation#getSliceWeights(int)}. It is one multiply-add
+ * per pixel and per slice instead of one per pixel and per Simpson sample (101).
+ *
+ * @author Tong LI, mail: tongli.bioinfo@gmail.com
+ */
+class WeightedSliceSum implements Runnable {
+   // SIMD kernel, null when it is not compiled or jdk.incubator.vector is not loaded
+   private static final Constructor<?> VECTOR_SLICE_SUM = loadVectorSliceSum();
+   private Object[] slices_;
+   private int stackWidth_;
+   private double[] weights_;
+   private float[] correlation_;
+   private int x0_;
+   private int y0_;
+   private int width_;
+   private int height_;
+
+   /**
+    * @param slices      pixel arrays of the stack (see {@link ComputeImageCorrelation#readSlices(ij.ImageStack, double[])})
+    * @param stackWidth  width of the stack
+    * @param weights     weight of each slice
+    * @param correlation pixels of the correlation image, same size as the stack
+    * @param x0          x of the upper left corner of the rectangle
+    * @param y0          y of the upper left corner of the rectangle
+    * @param width       width of the rectangle
+    * @param height      height of the rectangle
+    */
+   WeightedSliceSum(Object[] slices, int stackWidth, double[] weights, float[] correlation,
+                    int x0, int y0, int width, int height) {
+      slices_ = slices;
+      stackWidth_ = stackWidth;
+      weights_ = weights;
+      correlation_ = correlation;
+      x0_ = x0;
+      y0_ = y0;
+      width_ = width;
+      height_ = height;
+   }
+
+   /**
+    * Same parameters as the constructor, the task is a {@link VectorSliceSum} if the Vector
+    * API is available and the stack is 16-bit, a WeightedSliceSum otherwise.
+    *
+    * @return task computing the correlation of the rectangle
+    */
+   static Runnable newTask(Object[] slices, int stackWidth, double[] weights, float[] correlation,
+                           int x0, int y0, int width, int height) {
+      if (VECTOR_SLICE_SUM != null && isShort(slices)) {
+         try {
+            return (Runnable) VECTOR_SLICE_SUM.newInstance(slices, stackWidth, weights, correlation,
+                  x0, y0, width, height);
+         } catch (ReflectiveOperationException e) {
+            IOUtils.printErrorToIJLog(e);
+         }
+      }
+      return new WeightedSliceSum(slices, stackWidth, weights, correlation, x0, y0, width, height);
+   }
+
+   private static boolean isShort(Object[] slices) {
+      for (Object pixels : slices) {
+         if (pixels != null) {
+            return pixels instanceof short[];
+         }
+      }
+      return false;
+   }
+
+   private static Constructor<?> loadVectorSliceSum() {
+      try {
+         Class<?> c = Class.forName("maars.segmentPombe.VectorSliceSum", true,
+               WeightedSliceSum.class.getClassLoader());
+         Constructor<?> constructor = c.getDeclaredConstructor(Object[].class, int.class, double[].class,
+               float[].class, int.class, int.class, int.class, int.class);
+         constructor.setAccessible(true);
+         IJ.log("Correlation image computed with the Vector API");
+         return constructor;
+      } catch (Throwable t) {
+         // not compiled with the vector profile, older JVM or module not added : scalar path
+         return null;
+      }
+   }
+
+   @Override
+   public void run() {
+      double[] sum = new double[width_];
+      for (int y = y0_; y < y0_ + height_; y++) {
+         Arrays.fill(sum, 0);
+         int offset = y * stackWidth_ + x0_;
+         for (int z = 0; z < weights_.length; z++) {
+            if (weights_[z] != 0) {
+               ComputeImageCorrelation.accumulate(slices_[z], offset, weights_[z], sum);
+            }
+         }
+         for (int x = 0; x < width_; x++) {
+            correlation_[offset + x] = (float) sum[x];
+         }
+      }
+   }
+}
@@ -4,6 +4,8 @@ import ij.IJ;
 import maars.io.IOUtils;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
@@ -113,6 +115,37 @@ public class FileUtils {
       FileUtils.writeScript(folderPath + scriptName, script);
    }
 
+   /**
+    * Write the remaining bytes of the buffer to a temporary file next to the target, then replace
+    * the target by it (atomically if the file system can), so a reader never sees a partial
+    * file. The bytes are written from the buffer, not mapped : a file with a live mapping can not
+    * be moved or deleted on Windows.
+    *
+    * @param target file to write
+    * @param buffer content of the file
+    * @throws IOException if the file can not be written, the target is then left unchanged
+    */
+   public static void writeAtomically(Path target, ByteBuffer buffer) throws IOException {
+      Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+      try {
+         try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+               StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+               channel.write(buffer);
+            }
+            channel.force(false);
+         }
+         try {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+         } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+         }
+      } catch (IOException e) {
+         Files.deleteIfExists(tmp);
+         throw e;
+      }
+   }
+
    public static boolean containsTiffFile(String path){
       boolean hasTiffFile = false;
       for (String f : new File(path).list()){
@@ -0,0 +1,91 @@
+package maars.utils;
+
+import ij.IJ;
+import maars.io.IOUtils;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+/**
+ * The scheduler of the whole pipeline : segmentation, spot detection and analysis of the
+ * cells share one work-stealing pool with a thread per core. A task waiting for its subtasks
+ * runs them (or others) meanwhile, so nested parallelism, a position running the tiles of
+ * its correlation or a frame running its cells, never uses more threads than cores.
+ *
+ * @author Tong LI, mail: tongli.bioinfo@gmail.com
+ */
+public class PipelineExecutor {
+   private static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+   private PipelineExecutor() {
+   }
+
+   /**
+    * @return the pool shared by the pipeline
+    */
+   public static ForkJoinPool getPool() {
+      return POOL;
+   }
+
+   /**
+    * @param task task to run in the pool
+    * @return its completion
+    */
+   public static CompletableFuture<Void> submit(Runnable task) {
+      return CompletableFuture.runAsync(task, POOL);
+   }
+
+   /**
+    * @param task task to run in the pool
+    * @param <T>  type of the result
+    * @return its result
+    */
+   public static <T> CompletableFuture<T> supply(Supplier<T> task) {
+      return CompletableFuture.supplyAsync(task, POOL);
+   }
+
+   /**
+    * Run body for every index in the pool and wait for the end. Called from a task of the
+    * pool, the indices are split among the idle threads and the caller works on them too.
+    *
+    * @param from first index
+    * @param to   last index, excluded
+    * @param body task of an index
+    */
+   public static void forEach(int from, int to, IntConsumer body) {
+      if (ForkJoinTask.getPool() == POOL) {
+         IntStream.range(from, to).parallel().forEach(body);
+      } else {
+         POOL.submit(() -> IntStream.range(from, to).parallel().forEach(body)).join();
+      }
+   }
+
+   /**
+    * Completion of a set of tasks, with their progress in the status bar of ImageJ. The
+    * failure of a task is logged and does not stop the others.
+    *
+    * @param tasks tasks to follow
+    * @return completed when all tasks are
+    */
+   public static CompletableFuture<Void> allOf(List<? extends CompletableFuture<?>> tasks) {
+      AtomicInteger done = new AtomicInteger();
+      CompletableFuture<?>[] followed = new CompletableFuture<?>[tasks.size()];
+      for (int i = 0; i < followed.length; i++) {
+         followed[i] = tasks.get(i).handle((result, error) -> {
+            if (error != null) {
+               IOUtils.printErrorToIJLog(new ExecutionException(error));
+            }
+            IJ.showProgress(done.incrementAndGet(), followed.length);
+            return null;
+         });
+      }
+      return CompletableFuture.allOf(followed);
+   }
+}
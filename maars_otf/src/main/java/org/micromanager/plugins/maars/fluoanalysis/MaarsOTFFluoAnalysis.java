@@ -7,11 +7,13 @@ import maars.agents.DefaultSetOfCells;
 import maars.agents.SetOfCells;
 import maars.cellAnalysis.FluoAnalyzer;
 import maars.io.IOUtils;
+import maars.io.LabelMapFile;
 import maars.main.MaarsParameters;
 import maars.main.Maars_Interface;
 import maars.mmUtils.ImgMMUtils;
 import maars.utils.FileUtils;
 import maars.utils.ImgUtils;
+import maars.utils.PipelineExecutor;
 import org.micromanager.acquisition.ChannelSpec;
 import org.micromanager.acquisition.SequenceSettings;
 import org.micromanager.data.Image;
@@ -20,12 +22,11 @@ import org.micromanager.data.ProcessorContext;
 import org.micromanager.internal.MMStudio;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletionException;
 
 /**
  * Created by tongli on 27/06/2017.
@@ -36,7 +37,6 @@ public class MaarsOTFFluoAnalysis extends Processor {
    private Calibration cal_ = new Calibration();
    private HashMap<String, ArrayList<Image>> chZstacks= new HashMap<>();
    private HashMap<String, DefaultSetOfCells> posSoc_ = new HashMap<>();
-   private ExecutorService es_ = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
    MaarsOTFFluoAnalysis(MaarsParameters parameters){
       parameters_ = parameters;
       SequenceSettings seqSetting = mm_.getAcquisitionManager().getAcquisitionSettings();
@@ -65,8 +65,21 @@ public class MaarsOTFFluoAnalysis extends Processor {
          String segAnaDir = FileUtils.convertPath(parameters_.getSavingPath()) + File.separator +
                parameters_.getSegmentationParameter(MaarsParameters.SEG_PREFIX) + Maars_Interface.SEGANALYSIS_SUFFIX;
          String currentPosPrefix = segAnaDir + currentPos + File.separator;
+         String currentLabelMapPath = currentPosPrefix + LabelMapFile.NAME;
          String currentZipPath = currentPosPrefix + "ROI.zip";
-         defaultSetOfCells.loadCells(currentZipPath);
+         boolean loaded = false;
+         if (LabelMapFile.isUpToDate(currentLabelMapPath, currentZipPath)) {
+            try {
+               defaultSetOfCells.loadCellsFromLabelMap(currentLabelMapPath);
+               loaded = true;
+            } catch (IOException e) {
+               IOUtils.printErrorToIJLog(e);
+            }
+         }
+         if (!loaded) {
+            // segmented without label map, or rois edited after it
+            defaultSetOfCells.loadCells(currentZipPath);
+         }
          posSoc_.put(currentPos, defaultSetOfCells);
       }
       ArrayList<Image> currentChImgs = chZstacks.get(currentCh);
@@ -78,15 +91,14 @@ public class MaarsOTFFluoAnalysis extends Processor {
          ImagePlus imp = ImgMMUtils.convertWithMetadata(currentChImgs, mm_.getCachedPixelSizeUm());
          ImagePlus zProjectedFluoImg = ImgUtils.zProject(imp, cal_);
          try {
-            es_.submit(new FluoAnalyzer(zProjectedFluoImg, cal_,
+            PipelineExecutor.submit(new FluoAnalyzer(zProjectedFluoImg, cal_,
                   posSoc_.get(currentPos), currentCh, Integer.parseInt(parameters_.getChMaxNbSpot(currentCh)),
                   Double.parseDouble(parameters_.getChSpotRaius(currentCh)),
                   Double.parseDouble(parameters_.getChQuality(currentCh)), image.getCoords().getTime(),
-                  null, parameters_.useDynamic())).get();
-         } catch (InterruptedException | ExecutionException e) {
-            e.printStackTrace();
+                  null, parameters_.useDynamic(), parameters_.useTrackmateDetector())).join();
+         } catch (CompletionException e) {
+            IOUtils.printErrorToIJLog(e);
          }
-         es_.shutdown();
       }
 //      SetOfCells soc = posSoc_.get(currentPos);
 //      if (soc.size() != 0) {
@@ -4,6 +4,8 @@ import ij.ImagePlus;
 import maars.main.MaarsParameters;
 import maars.main.MaarsSegmentation;
 import maars.mmUtils.ImgMMUtils;
+import maars.segmentPombe.CorrelationAccumulator;
+import maars.utils.PipelineExecutor;
 import org.json.JSONException;
 import org.micromanager.data.Image;
 import org.micromanager.data.Processor;
@@ -11,10 +13,9 @@ import org.micromanager.data.ProcessorContext;
 import org.micromanager.internal.MMStudio;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletionException;
 
 /**
  * Created by tong on 26/06/17.
@@ -22,6 +23,10 @@ import java.util.concurrent.Executors;
 public class MaarsOTFSeg extends Processor{
    private MaarsParameters parameters_;
    private MMStudio mm_ = MMStudio.getInstance();
+   // correlation image computed slice by slice, the stack is not kept in memory
+   private CorrelationAccumulator accumulator_;
+   private Image focusImage_;
+   // with an automatic focus the whole stack is needed
    private List<Image> zstack_ = new ArrayList<>();
    private int counter_ = 0;
    private String pos_ = "Pos0";
@@ -33,10 +38,27 @@ public class MaarsOTFSeg extends Processor{
    @Override
    public void processImage(Image image, ProcessorContext processorContext) {
       boolean isOk = ImgMMUtils.IsOkToProceed();
+      int nSlices = mm_.acquisitions().getAcquisitionSettings().slices.size();
+      boolean autoFocus = MaarsSegmentation.isAutoFocus(parameters_);
+      if (autoFocus) {
+         zstack_.add(image);
+      } else {
+         if (counter_ == 0) {
+            accumulator_ = MaarsSegmentation.newCorrelationAccumulator(parameters_, image.getWidth(),
+                  image.getHeight(), nSlices);
+         }
+         accumulator_.add(counter_, image.getRawPixels());
+         if (accumulator_.isFocus(counter_)) {
+            focusImage_ = image;
+         }
+      }
       counter_++;
-      zstack_.add(image);
       processorContext.outputImage(image);
-      if (counter_ == mm_.acquisitions().getAcquisitionSettings().slices.size() && isOk){
+      if (counter_ == nSlices && !isOk) {
+         // the accumulator is indexed by slice, start the next stack anyway
+         counter_ = 0;
+         zstack_ = new ArrayList<>();
+      } else if (counter_ == nSlices){
          String prefix = "";
          try {
             prefix = mm_.getAcquisitionEngine2010().getSummaryMetadata().getString("Prefix");
@@ -44,18 +66,20 @@ public class MaarsOTFSeg extends Processor{
             e.printStackTrace();
          }
          parameters_.setSegmentationParameter(MaarsParameters.SEG_PREFIX,  prefix);
-         ImagePlus imp = ImgMMUtils.convertWithMetadata(zstack_, mm_.getCachedPixelSizeUm());
-         ExecutorService es = Executors.newSingleThreadExecutor();
+         ImagePlus imp = ImgMMUtils.convertWithMetadata(autoFocus ? zstack_ : Collections.singletonList(focusImage_),
+               mm_.getCachedPixelSizeUm());
          if (mm_.positions().getPositionList().getPositions().length>0){
             pos_= mm_.positions().getPositionList().getPosition(image.getCoords().getStagePosition()).getLabel();
          }
          try {
-            es.submit(new MaarsSegmentation(parameters_, imp, pos_)).get();
-         } catch (InterruptedException | ExecutionException e) {
+            PipelineExecutor.submit(autoFocus ? new MaarsSegmentation(parameters_, imp, pos_) :
+                  new MaarsSegmentation(parameters_, imp, accumulator_.getCorrelation(), pos_)).join();
+         } catch (CompletionException e) {
             e.printStackTrace();
          }
-         es.shutdown();
          counter_ = 0;
+         accumulator_ = null;
+         focusImage_ = null;
          zstack_ = new ArrayList<>();
          parameters_.save(parameters_.getSavingPath());
       }
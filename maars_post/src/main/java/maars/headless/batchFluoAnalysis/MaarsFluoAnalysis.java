@@ -14,17 +14,16 @@ import maars.cellAnalysis.FluoAnalyzer;
 import maars.cellAnalysis.PythonPipeline;
 import maars.display.SOCVisualizer;
 import maars.io.IOUtils;
+import maars.io.LabelMapFile;
 import maars.main.MaarsParameters;
 import maars.main.Maars_Interface;
 import maars.utils.FileUtils;
 import maars.utils.ImgUtils;
+import maars.utils.PipelineExecutor;
 
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
 
@@ -41,6 +40,36 @@ public class MaarsFluoAnalysis implements Runnable{
       posNbs_ = getPositionSuffix(segDir);
       parameters_ = parameters;
    }
+   /**
+    * Initialize a set of cells from the label map of the segmentation, or from Roi.zip and
+    * Results.csv for the segmentations without it or when the rois were saved after it
+    *
+    * @param soc              set of cells to load
+    * @param currentPosPrefix segmentation directory of the position
+    * @return true if cells were loaded
+    */
+   static boolean loadCells(DefaultSetOfCells soc, String currentPosPrefix) {
+      String currentLabelMapPath = currentPosPrefix + LabelMapFile.NAME;
+      String currentZipPath = currentPosPrefix + "ROI.zip";
+      if (LabelMapFile.isUpToDate(currentLabelMapPath, currentZipPath)) {
+         try {
+            soc.loadCellsFromLabelMap(currentLabelMapPath);
+            return true;
+         } catch (IOException e) {
+            IOUtils.printErrorToIJLog(e);
+         }
+      }
+      if (!FileUtils.exists(currentZipPath)) {
+         return false;
+      }
+      soc.loadCells(currentZipPath);
+      IJ.open(currentPosPrefix + "Results.csv");
+      ResultsTable rt = ResultsTable.getResultsTable();
+      ResultsTable.getResultsWindow().close(false);
+      soc.addRoiMeasurementIntoCells(rt);
+      return true;
+   }
+
    @Override
    public void run() {
       AtomicBoolean stop = new AtomicBoolean(false);
@@ -55,14 +84,7 @@ public class MaarsFluoAnalysis implements Runnable{
          ImagePlus concatenatedFluoImgs = null;
          soc = new DefaultSetOfCells(posNb);
          String currentPosPrefix = segAnaDir + posNb + File.separator;
-         String currentZipPath = currentPosPrefix + "ROI.zip";
-         if (FileUtils.exists(currentZipPath)) {
-            // from Roi.zip initialize a set of cell
-            soc.loadCells(currentZipPath);
-            IJ.open(currentPosPrefix + "Results.csv");
-            ResultsTable rt = ResultsTable.getResultsTable();
-            ResultsTable.getResultsWindow().close(false);
-            soc.addRoiMeasurementIntoCells(rt);
+         if (loadCells(soc, currentPosPrefix)) {
             // ----------------start acquisition and analysis --------//
             try {
                PrintStream ps = new PrintStream(parameters_.getSavingPath() + File.separator + "FluoAnalysis.LOG");
@@ -73,12 +95,14 @@ public class MaarsFluoAnalysis implements Runnable{
             } catch (FileNotFoundException e) {
                IOUtils.printErrorToIJLog(e);
             }
-            CopyOnWriteArrayList<Map<String, Future>> tasksSet = new CopyOnWriteArrayList<>();
+            ArrayList<CompletableFuture<Void>> tasks = new ArrayList<>();
             concatenatedFluoImgs = processStackedImg(fluoImgsDir, posNb,
-                     parameters_, soc, null, tasksSet, stop);
+                     parameters_, soc, null, tasks, stop);
             concatenatedFluoImgs.getCalibration().frameInterval =
                   Double.parseDouble(parameters_.getFluoParameter(MaarsParameters.TIME_INTERVAL)) / 1000;
-            Maars_Interface.waitAllTaskToFinish(tasksSet);
+            IJ.showStatus("Terminating analysis...");
+            PipelineExecutor.allOf(tasks).join();
+            IJ.log("Spot detection finished! Proceed to saving and analysis...");
             if (!stop.get() && soc.size() != 0) {
                long startWriting = System.currentTimeMillis();
                ArrayList<String> arrayChannels = new ArrayList<>();
@@ -103,7 +127,7 @@ public class MaarsFluoAnalysis implements Runnable{
 
    private static ImagePlus processStackedImg(String pathToFluoImgsDir, String pos,
                                              MaarsParameters parameters, DefaultSetOfCells soc, SOCVisualizer socVisualizer,
-                                             CopyOnWriteArrayList<Map<String, Future>> tasksSet, AtomicBoolean stop) {
+                                             List<CompletableFuture<Void>> tasks, AtomicBoolean stop) {
       ImagePlus concatenatedFluoImgs = loadImgOfPosition(pathToFluoImgsDir, pos);
 
       String[] arrayChannels = parameters.getUsingChannels().split(",");
@@ -112,30 +136,25 @@ public class MaarsFluoAnalysis implements Runnable{
       int totalSlice = Integer.parseInt(concatenatedFluoImgs.getStringProperty("SizeZ"));
       int totalFrame = Integer.parseInt(concatenatedFluoImgs.getStringProperty("SizeT"));
 
-      ExecutorService es = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
       Duplicator duplicator = new Duplicator();
       for (int i = 1; i <= totalFrame; i++) {
-         Map<String, Future> chAnalysisTasks = new HashMap<>();
          for (int j = 1; j <= totalChannel; j++) {
             String channel = arrayChannels[j - 1];
             IJ.log("Processing channel " + channel + "_" + i);
             ImagePlus zProjectedFluoImg = ImgUtils.zProject(
                   duplicator.run(concatenatedFluoImgs, j, j, 1, totalSlice, i, i)
                   , concatenatedFluoImgs.getCalibration());
-            Future future = es.submit(new FluoAnalyzer(zProjectedFluoImg, zProjectedFluoImg.getCalibration(),
+            tasks.add(PipelineExecutor.submit(new FluoAnalyzer(zProjectedFluoImg, zProjectedFluoImg.getCalibration(),
                   soc, channel, Integer.parseInt(parameters.getChMaxNbSpot(channel)),
                   Double.parseDouble(parameters.getChSpotRaius(channel)),
                   Double.parseDouble(parameters.getChQuality(channel)), i, socVisualizer,
-                  parameters.useDynamic()));
-            chAnalysisTasks.put(channel, future);
+                  parameters.useDynamic(), parameters.useTrackmateDetector())));
          }
-         tasksSet.add(chAnalysisTasks);
          if (stop.get()) {
             break;
          }
       }
       System.gc();
-      es.shutdown();
       if (Boolean.parseBoolean(parameters.getProjected())) {
          IJ.run(concatenatedFluoImgs, "Z Project...", "projection=[Max Intensity] all");
          return (IJ.getImage());
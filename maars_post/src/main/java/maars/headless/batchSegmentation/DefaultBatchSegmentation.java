@@ -24,11 +24,22 @@ public class DefaultBatchSegmentation extends AbstractOp implements BatchSegment
 
    @Parameter
    private String configName;
+
+   // memory for the positions segmented at once, in MB, 3/4 of the heap by default. Compared to
+   // an upper bound of the memory of each position (its whole stack)
+   @Parameter(required = false)
+   private long memoryBudget = Runtime.getRuntime().maxMemory() / 1024 / 1024 * 3 / 4;
+
+   // maximum number of positions segmented at once
+   @Parameter(required = false)
+   private int nbThreads = Runtime.getRuntime().availableProcessors();
+
    @Override
    public void run(){
       launchSeg(dirs, configName);}
 
    private void launchSeg(String[] dirs, String configName) {
+      SegmentationScheduler scheduler = new SegmentationScheduler(memoryBudget * 1024 * 1024, nbThreads);
       for (String d : dirs) {
          IJ.log(d);
          MaarsParameters parameter = MaarsParameters.fromFile(d + File.separator  + configName);
@@ -36,20 +47,24 @@ public class DefaultBatchSegmentation extends AbstractOp implements BatchSegment
          parameter.save(d);
          String segPath = d + File.separator + parameter.getSegmentationParameter(MaarsParameters.SEG_PREFIX);
          String[] posNbs = MaarsFluoAnalysis.getPositionSuffix(segPath);
+         // the binary images reviewed by the user are shown one at a time
+         boolean review = MaarsSegmentation.needsReview(parameter);
          for (String pos: posNbs){
             for (String f : FileUtils.getTiffWithPattern(segPath, ".*.tif")){
                if (Pattern.matches(".*MMStack_" + pos+"\\.ome\\.tif", f)){
-                  ImagePlus img = IJ.openImage(segPath + File.separator + f);
-                  Thread th = new Thread(new MaarsSegmentation(parameter, img, pos));
-                  th.start();
-                  try {
-                     th.join();
-                  } catch (InterruptedException e) {
-                     e.printStackTrace();
-                  }
+                  String path = segPath + File.separator + f;
+                  scheduler.submit(d + " " + pos, SegmentationScheduler.estimateMemory(path), review, () -> {
+                     // virtual stack : only the slices contributing to the correlation are read from disk
+                     ImagePlus img = IJ.openVirtual(path);
+                     if (img == null) {
+                        img = IJ.openImage(path);
+                     }
+                     new MaarsSegmentation(parameter, img, pos).run();
+                  });
                }
             }
          }
       }
+      scheduler.shutdown();
    }
 }
@@ -0,0 +1,131 @@
+package maars.headless.batchSegmentation;
+
+import ij.IJ;
+import ij.io.FileInfo;
+import ij.io.Opener;
+import maars.io.IOUtils;
+import maars.utils.PipelineExecutor;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Run several segmentations at once. Each position is admitted only while the memory it is
+ * expected to use, added to the one of the positions running, stays under the budget. A
+ * position bigger than the budget runs alone, as well as a position which asks the user to
+ * review its binary image (one dialog at a time). The positions run in the pool of the
+ * pipeline, with the tiles of their correlation images.
+ *
+ * Created by tongli on 13/06/2017.
+ */
+class SegmentationScheduler {
+   // correlation (float), its 8-bit and binary copies, and the correlation image saved
+   private static final int BYTES_PER_PIXEL_OF_RESULTS = 4 + 1 + 1 + 4;
+   private final long budget_;
+   private final int nThreads_;
+   private final ArrayList<CompletableFuture<Void>> tasks_ = new ArrayList<>();
+   private long inUse_ = 0;
+   private int running_ = 0;
+   private boolean exclusive_ = false;
+   private int submitted_ = 0;
+   private int done_ = 0;
+   private long start_;
+
+   /**
+    * @param budget   memory available for the segmentations, in bytes
+    * @param nThreads maximum number of positions running at once
+    */
+   SegmentationScheduler(long budget, int nThreads) {
+      budget_ = budget;
+      nThreads_ = nThreads;
+      start_ = System.currentTimeMillis();
+   }
+
+   /**
+    * Memory footprint of the segmentation of a stack, from the dimensions in its TIFF header. The
+    * stack is counted whole, an upper bound for a virtual stack which only reads the slices
+    * weighted in the correlation.
+    *
+    * @param path path to the tiff stack
+    * @return estimated number of bytes used, 0 if the header can not be read
+    */
+   static long estimateMemory(String path) {
+      FileInfo[] infos;
+      try {
+         infos = Opener.getTiffFileInfo(path);
+      } catch (Exception e) {
+         IOUtils.printErrorToIJLog(e);
+         return 0;
+      }
+      if (infos == null || infos.length == 0) {
+         return 0;
+      }
+      FileInfo info = infos[0];
+      long nImages = infos.length == 1 ? info.nImages : infos.length;
+      long planeSize = (long) info.width * info.height;
+      return planeSize * info.getBytesPerPixel() * nImages + planeSize * BYTES_PER_PIXEL_OF_RESULTS;
+   }
+
+   /**
+    * Wait until the position fits in the budget, then run it
+    *
+    * @param name      name of the position, for the log
+    * @param memory    estimated memory of the position (see {@link #estimateMemory(String)})
+    * @param exclusive true to run the position alone, when it opens a dialog for instance
+    * @param task      segmentation of the position
+    */
+   void submit(String name, long memory, boolean exclusive, Runnable task) {
+      synchronized (this) {
+         while (running_ >= nThreads_ || exclusive_ || exclusive && running_ > 0
+               || inUse_ > 0 && inUse_ + memory > budget_) {
+            try {
+               wait();
+            } catch (InterruptedException e) {
+               Thread.currentThread().interrupt();
+               return;
+            }
+         }
+         inUse_ += memory;
+         running_++;
+         submitted_++;
+         exclusive_ = exclusive;
+      }
+      IJ.log("Start " + name + " (" + memory / 1024 / 1024 + " MB)");
+      CompletableFuture<Void> future = PipelineExecutor.submit(() -> {
+         try {
+            task.run();
+         } catch (RuntimeException e) {
+            IOUtils.printErrorToIJLog(e);
+         } finally {
+            release(name, memory);
+         }
+      });
+      synchronized (this) {
+         tasks_.add(future);
+      }
+   }
+
+   private synchronized void release(String name, long memory) {
+      inUse_ -= memory;
+      running_--;
+      done_++;
+      exclusive_ = false;
+      double minutes = (System.currentTimeMillis() - start_) / 60000.0;
+      IJ.log(name + " done, " + done_ + "/" + submitted_ + " positions, "
+            + IJ.d2s(done_ / minutes, 2) + " positions/min");
+      notifyAll();
+   }
+
+   /**
+    * Wait for the end of all segmentations submitted
+    */
+   void shutdown() {
+      ArrayList<CompletableFuture<Void>> tasks;
+      synchronized (this) {
+         tasks = new ArrayList<>(tasks_);
+      }
+      CompletableFuture.allOf(tasks.toArray(new CompletableFuture[tasks.size()])).join();
+      double minutes = (System.currentTimeMillis() - start_) / 60000.0;
+      IJ.log(done_ + " positions segmented in " + IJ.d2s(minutes, 1) + " min");
+   }
+}